@@ -0,0 +1,236 @@
+package com.corti;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * This class scores recorded games without anyone at the console (i.e. to regression
+ * test or bulk score thousands of matches).  A script is a header line saying what's
+ * being played followed by the requests, one per line, exactly as they'd be typed:
+ * <pre>
+ *   game tennis 2
+ *   1
+ *   2
+ *   ...
+ * </pre>
+ * Scripts can be files in a directory (one script per file) or one stream where each
+ * 'game' line starts the next script.  The scripts are scored in parallel on a fork join
+ * pool using the same SportsGame/SportGameUI logic as the console, then the final
+ * scoreboards are written (in script order) followed by throughput statistics.  When an
+ * archive is set the games that finish are added to it (see GameArchive).
+ */
+public class BatchScorer {
+  private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+  private final int parallelism;
+  private GameArchive archive;          // Finished games are appended to it when set
+
+  /**
+   * Constructor
+   *
+   * @param _parallelism Number of threads to score with
+   */
+  public BatchScorer(int _parallelism) {
+    parallelism = Math.max(_parallelism, 1);
+  }
+
+  /**
+   * Add the games that finish to the archive passed in (null to stop)
+   */
+  public void setArchive(GameArchive _archive) {
+    archive = _archive;
+  }
+
+  /**
+   * A script to score, data holds the whole script (header included)
+   */
+  public static class Script {
+    final String name;
+    final byte[] data;
+
+    public Script(String _name, byte[] _data) {
+      name = _name;
+      data = _data;
+    }
+  }
+
+  /**
+   * The outcome of scoring one script
+   */
+  public static class Result {
+    final String name;
+    final String scoreboard;    // Final scoreboard, or an error message
+    final int requests;         // Number of request lines in the script
+
+    Result(String _name, String _scoreboard, int _requests) {
+      name = _name;
+      scoreboard = _scoreboard;
+      requests = _requests;
+    }
+  }
+
+  /**
+   * Read every file in the directory as a script (sorted by name so output is repeatable)
+   *
+   * @param _directory Directory holding the scripts
+   * @return List of scripts
+   * @throws IOException if the directory or a file can't be read
+   */
+  public static List<Script> readDirectory(Path _directory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(_directory)) {
+      for (Path entry : entries) {
+        if (Files.isRegularFile(entry)) files.add(entry);
+      }
+    }
+    files.sort(null);
+    List<Script> scripts = new ArrayList<>(files.size());
+    for (Path file : files) {
+      scripts.add(new Script(file.getFileName().toString(), Files.readAllBytes(file)));
+    }
+    return scripts;
+  }
+
+  /**
+   * Read scripts from a stream, every line starting with 'game' starts a new script
+   *
+   * @param _in Stream of scripts
+   * @return List of scripts
+   * @throws IOException if the stream can't be read
+   */
+  public static List<Script> readStream(InputStream _in) throws IOException {
+    byte[] data = _in.readAllBytes();
+    List<Script> scripts = new ArrayList<>();
+    int scriptStart = -1;
+    for (int lineStart = 0; lineStart < data.length; ) {
+      int lineEnd = lineStart;
+      while (lineEnd < data.length && data[lineEnd] != '\n') lineEnd++;
+      if (startsWithGame(data, lineStart, lineEnd)) {
+        if (scriptStart >= 0) {
+          scripts.add(new Script("script " + (scripts.size() + 1), Arrays.copyOfRange(data, scriptStart, lineStart)));
+        }
+        scriptStart = lineStart;
+      }
+      lineStart = lineEnd + 1;
+    }
+    if (scriptStart >= 0) {
+      scripts.add(new Script("script " + (scripts.size() + 1), Arrays.copyOfRange(data, scriptStart, data.length)));
+    }
+    return scripts;
+  }
+
+  private static boolean startsWithGame(byte[] _data, int _start, int _end) {
+    return (_end - _start >= 4 && _data[_start] == 'g' && _data[_start + 1] == 'a'
+            && _data[_start + 2] == 'm' && _data[_start + 3] == 'e');
+  }
+
+  /**
+   * Score one script and return its final scoreboard
+   *
+   * @param _script The script
+   * @return Result for the script
+   */
+  public static Result score(Script _script) {
+    return score(_script, null);
+  }
+
+  /**
+   * Score one script and return its final scoreboard, the game is added to the archive
+   * if it finished
+   *
+   * @param _script The script
+   * @param _archive Archive for the game (can be null)
+   * @return Result for the script
+   */
+  public static Result score(Script _script, GameArchive _archive) {
+    byte[] data = _script.data;
+    int headerEnd = 0;
+    while (headerEnd < data.length && data[headerEnd] != '\n') headerEnd++;
+    String[] header = new String(data, 0, headerEnd, StandardCharsets.US_ASCII).trim().split("\\s+");
+
+    SportsGame theGame = null;
+    if (header.length >= 2 && header[0].equals("game")) {
+      int players = 2;
+      if (header.length > 2) {
+        try {
+          players = Integer.parseInt(header[2]);
+        } catch (NumberFormatException ne) {
+          players = 0;
+        }
+      }
+      theGame = GameRegistry.createGame(header[1], players);
+    }
+    if (theGame == null) {
+      return new Result(_script.name, "Invalid script header: " + new String(data, 0, headerEnd, StandardCharsets.US_ASCII), 0);
+    }
+
+    int requests = 0;
+    for (int i = headerEnd + 1; i < data.length; i++) {
+      if (data[i] == '\n') requests++;
+    }
+    if (data.length > headerEnd + 1 && data[data.length - 1] != '\n') requests++;
+
+    // Nobody is watching so the ui's prompts and messages go nowhere
+    SportGameUI gameUI = GameRegistry.createUI(theGame);
+    gameUI.setOutput(DISCARD);
+    try {
+      int bodyStart = Math.min(headerEnd + 1, data.length);
+      gameUI.scoreScript(new ByteArrayInputStream(data, bodyStart, data.length - bodyStart));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (_archive != null && theGame.isGameOver()) _archive.append(theGame);
+    return new Result(_script.name, new ScoreboardRenderer().renderToString(theGame), requests);
+  }
+
+  /**
+   * Score all the scripts in parallel, write each scoreboard (in script order) and then
+   * the throughput statistics.
+   *
+   * @param _scripts Scripts to score
+   * @param _out Where to write the scoreboards and statistics
+   */
+  public void run(List<Script> _scripts, PrintStream _out) {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    GameArchive gameArchive = archive;
+    long startTime = System.nanoTime();
+    List<Result> results;
+    try {
+      results = pool.submit(() -> _scripts.parallelStream().map(script -> score(script, gameArchive))
+                                          .collect(Collectors.toList())).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Batch scoring failed", e);
+    } finally {
+      pool.shutdown();
+    }
+    long elapsed = System.nanoTime() - startTime;
+
+    long requests = 0;
+    for (Result result : results) {
+      _out.println("==== " + result.name);
+      _out.print(result.scoreboard);
+      requests += result.requests;
+    }
+    double seconds = Math.max(elapsed, 1) / 1e9;
+    _out.format("%n%-18s%d%n", "Scripts", results.size());
+    _out.format("%-18s%d%n", "Requests", requests);
+    _out.format("%-18s%d%n", "Threads", parallelism);
+    _out.format("%-18s%.1f ms%n", "Elapsed", elapsed / 1e6);
+    _out.format("%-18s%.0f%n", "Games/sec", results.size() / seconds);
+    _out.format("%-18s%.0f%n", "Requests/sec", requests / seconds);
+  }
+}
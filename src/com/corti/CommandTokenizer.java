@@ -0,0 +1,164 @@
+package com.corti;
+
+/**
+ * This class breaks a scoring request (what the user types when scoring a game) into the
+ * command it is, without regular expressions and without creating any strings.  A request
+ * is one of:
+ * <pre>
+ *   h          help
+ *   q          quit
+ *   +          advance to next interval
+ *   s          show the score
+ *   u          undo the last thing done
+ *   1 7        team (and points), one or two numbers
+ * </pre>
+ * The request can come from a String or straight from bytes (i.e. a buffer read from a
+ * script file).  After parse is called the numbers are available with getTeam/getPoints.
+ * A tokenizer keeps state from the last parse so each thread needs its own.
+ */
+public class CommandTokenizer {
+  public static final int INVALID = 0;
+  public static final int HELP = 1;
+  public static final int QUIT = 2;
+  public static final int ADVANCE = 3;
+  public static final int SHOW = 4;
+  public static final int NUMBERS = 5;
+  public static final int UNDO = 6;
+
+  private byte[] bytes;          // Set when parsing bytes
+  private CharSequence chars;    // Set when parsing a string
+  private int team;
+  private int points;
+  private int numberCount;
+
+  /**
+   * Parse a request in a String
+   *
+   * @param _request The request
+   * @return int command (INVALID, HELP, QUIT, ADVANCE, SHOW, UNDO or NUMBERS)
+   */
+  public int parse(CharSequence _request) {
+    bytes = null;
+    chars = _request;
+    return parse(0, _request.length());
+  }
+
+  /**
+   * Parse a request held in a byte array (ascii), from _start up to (not including) _end
+   *
+   * @param _buffer Bytes holding the request
+   * @param _start Position of the first byte
+   * @param _end Position after the last byte
+   * @return int command (INVALID, HELP, QUIT, ADVANCE, SHOW, UNDO or NUMBERS)
+   */
+  public int parse(byte[] _buffer, int _start, int _end) {
+    chars = null;
+    bytes = _buffer;
+    return parse(_start, _end);
+  }
+
+  /**
+   * Return the team from the last NUMBERS request
+   */
+  public int getTeam() {
+    return team;
+  }
+
+  /**
+   * Return the points from the last NUMBERS request (0 if only a team was given)
+   */
+  public int getPoints() {
+    return points;
+  }
+
+  /**
+   * Return how many numbers the last NUMBERS request had (1 for team only, 2 for team and points)
+   */
+  public int getNumberCount() {
+    return numberCount;
+  }
+
+  /**
+   * Work out the command, tokens are separated by whitespace and a request with more than
+   * two tokens isn't valid
+   */
+  private int parse(int _start, int _end) {
+    team = 0;
+    points = 0;
+    numberCount = 0;
+
+    int pos = skipSpaces(_start, _end);
+    if (pos == _end) return INVALID;
+    int tokenEnd = skipToken(pos, _end);
+
+    // Single character commands
+    if (tokenEnd - pos == 1 && skipSpaces(tokenEnd, _end) == _end) {
+      switch (at(pos)) {
+        case 'h': case 'H':
+          return HELP;
+        case 'q': case 'Q':
+          return QUIT;
+        case '+':
+          return ADVANCE;
+        case 's': case 'S':
+          return SHOW;
+        case 'u': case 'U':
+          return UNDO;
+        default:
+          break;
+      }
+    }
+
+    // Otherwise it must be one or two numbers
+    while (pos < _end) {
+      if (numberCount == 2 || parseNumber(pos, tokenEnd) == false) {
+        numberCount = 0;
+        return INVALID;
+      }
+      pos = skipSpaces(tokenEnd, _end);
+      tokenEnd = skipToken(pos, _end);
+    }
+    return NUMBERS;
+  }
+
+  /**
+   * Parse a number (optional sign then digits) into team or points, returns false if it
+   * isn't a valid int
+   */
+  private boolean parseNumber(int _start, int _end) {
+    int pos = _start;
+    boolean negative = false;
+    if (at(pos) == '-' || at(pos) == '+') {
+      negative = (at(pos) == '-');
+      pos++;
+    }
+    if (pos == _end) return false;
+    long value = 0;
+    for (; pos < _end; pos++) {
+      int digit = at(pos) - '0';
+      if (digit < 0 || digit > 9) return false;
+      value = value * 10 + digit;
+      if (value > (long) Integer.MAX_VALUE + 1) return false;
+    }
+    value = (negative ? -value : value);
+    if (value > Integer.MAX_VALUE) return false;
+    if (numberCount == 0) team = (int) value;
+    else points = (int) value;
+    numberCount++;
+    return true;
+  }
+
+  private int skipSpaces(int _pos, int _end) {
+    while (_pos < _end && Character.isWhitespace(at(_pos))) _pos++;
+    return _pos;
+  }
+
+  private int skipToken(int _pos, int _end) {
+    while (_pos < _end && Character.isWhitespace(at(_pos)) == false) _pos++;
+    return _pos;
+  }
+
+  private int at(int _pos) {
+    return (bytes != null ? bytes[_pos] : chars.charAt(_pos));
+  }
+}
@@ -0,0 +1,490 @@
+package com.corti;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * This class is an archive of finished games kept for season level questions (average
+ * points per quarter, how often games go to overtime, strokes per hole, how often tennis
+ * games go to deuce) over millions of games.  Games are stored by column rather than by
+ * game, so a query only reads the columns it needs and never builds a SportsGame.
+ * <p>
+ * The archive is a directory with one memory mapped file per column:
+ * <pre>
+ *   sport.col      byte   sport code (see GameEventLog.sportCode), 0 means past the last game
+ *   flags.col      byte   FLAG_xxx below and the width the game's scores are stored in
+ *   teams.col      short  number of teams (unsigned)
+ *   intervals.col  short  number of intervals played, overtime included (unsigned)
+ *   base.col       int    lowest score in the game
+ *   offset.col     long   where the game's scores start in scores.col
+ *   scores.col            every interval score of every game, interval by interval
+ * </pre>
+ * Scores are delta encoded against the game's lowest score and stored in the fewest
+ * bytes that hold the biggest delta, so a football game is 8 bytes and a golf round is a
+ * byte a hole (strokes minus the best hole) no matter how big the field is.  Decoding is
+ * base + delta with no branches, so the loops the queries run are plain primitive array
+ * loops the jit can vectorize.
+ * <p>
+ * Queries split the games into slices and scan the slices in parallel on the common fork
+ * join pool.  Each slice reads the sport column in bulk, skips the games that don't
+ * match and decodes the scores of the ones that do into an int[] it reuses.  Use scan
+ * for your own questions, the built in ones (averageScoreByInterval, overtimeRate,
+ * deuceRate) are written the same way.
+ * <p>
+ * Games are appended by one thread at a time (append is synchronized) and can be queried
+ * while games are being appended, a query sees the games that were there when it started.
+ * The sport is the last thing written for a game so a game cut off by a crash is just
+ * not there when the archive is opened again.  A column can't be bigger than 2GB.
+ */
+public class GameArchive implements AutoCloseable {
+  public static final int FLAG_OVERTIME = 4;     // Went past the regulation intervals
+  public static final int FLAG_QUIT = 8;         // Game was quit rather than played out
+  private static final int WIDTH_MASK = 3;       // Low bits of the flags: 0 byte, 1 short, 2 int
+
+  private static final int SLICE_GAMES = 8192;   // Games scanned by one task
+  private static final int INITIAL_GAMES = 4096;
+
+  private final Column sports;
+  private final Column flags;
+  private final Column teams;
+  private final Column intervals;
+  private final Column bases;
+  private final Column offsets;
+  private final Column scores;
+  private volatile int gameCount;                // Written last so queries only see whole games
+  private long scoresEnd;                        // Where the next game's scores go
+
+  /**
+   * This interface is what a query gives scan, it's called once for every game of the
+   * sport scanned (by many threads, but each with its own result)
+   *
+   * @param <A> The query's result (i.e. totals it adds to)
+   */
+  public interface GameScanner<A> {
+    /**
+     * Add one game to the result
+     *
+     * @param _result The result for the slice being scanned
+     * @param _sportCode The game's sport code
+     * @param _flags FLAG_OVERTIME and/or FLAG_QUIT
+     * @param _teams Number of teams
+     * @param _intervals Number of intervals played
+     * @param _scores Scores by interval then team, score for team t (1 offset) in interval
+     *                i (1 offset) is _scores[(i - 1) * _teams + t - 1]; the array is reused
+     *                so only the first _teams * _intervals are the game's and it can't be kept
+     */
+    void scan(A _result, int _sportCode, int _flags, int _teams, int _intervals, int[] _scores);
+  }
+
+  /**
+   * Open (or create) the archive in the directory passed in, new games are appended
+   * after the ones already in it
+   *
+   * @param _directory Directory for the column files (created if needed)
+   * @throws IOException if we can't create or map the files
+   */
+  public GameArchive(Path _directory) throws IOException {
+    Files.createDirectories(_directory);
+    sports = new Column(_directory.resolve("sport.col"), 1);
+    flags = new Column(_directory.resolve("flags.col"), 1);
+    teams = new Column(_directory.resolve("teams.col"), 2);
+    intervals = new Column(_directory.resolve("intervals.col"), 2);
+    bases = new Column(_directory.resolve("base.col"), 4);
+    offsets = new Column(_directory.resolve("offset.col"), 8);
+    scores = new Column(_directory.resolve("scores.col"), 1);
+
+    int count = 0;
+    MappedByteBuffer sportMap = sports.map;
+    while (count < sportMap.capacity() && sportMap.get(count) != 0) count++;
+    if (count > 0) {
+      int last = count - 1;
+      scoresEnd = offsets.map.getLong(last * 8) + scoreBytes(last);
+    }
+    gameCount = count;
+  }
+
+  /**
+   * Add a finished game to the archive
+   *
+   * @param _theGame The game, it has to be over
+   * @return int index of the game in the archive
+   * @throws IllegalArgumentException if the game isn't over or is too big to archive
+   * @throws IllegalStateException if the archive is full
+   */
+  public synchronized int append(SportsGame _theGame) {
+    if (_theGame.isGameOver() == false) {
+      throw new IllegalArgumentException("Only finished games are archived");
+    }
+    ScoreboardSnapshot snapshot = _theGame.snapshot();
+    int teamCount = snapshot.getNumberOfTeams();
+    int played = snapshot.getCurrentInterval();
+    if (teamCount > 0xffff || played > 0xffff) {
+      throw new IllegalArgumentException("Game is too big to archive (" + teamCount + " teams, " + played + " intervals)");
+    }
+
+    int cells = teamCount * played;
+    int[] row = new int[cells];
+    long low = Long.MAX_VALUE;
+    long high = Long.MIN_VALUE;
+    for (int interval = 1; interval <= played; interval++) {
+      for (int teamId = 1; teamId <= teamCount; teamId++) {
+        int score = snapshot.getScore(teamId, interval);
+        row[(interval - 1) * teamCount + teamId - 1] = score;
+        low = Math.min(low, score);
+        high = Math.max(high, score);
+      }
+    }
+    int base = (cells == 0 ? 0 : (int) low);
+    long range = (cells == 0 ? 0 : high - low);
+    int widthCode = (range <= 0xff ? 0 : (range <= 0xffff ? 1 : 2));
+    if (widthCode == 2) base = 0;     // Full ints, the deltas might not fit
+    int width = 1 << widthCode;
+
+    int game = gameCount;
+    scores.ensure(scoresEnd + (long) cells * width);
+    MappedByteBuffer scoreMap = scores.map;
+    int pos = (int) scoresEnd;
+    for (int i = 0; i < cells; i++, pos += width) {
+      int delta = row[i] - base;
+      switch (width) {
+        case 1:
+          scoreMap.put(pos, (byte) delta);
+          break;
+        case 2:
+          scoreMap.putShort(pos, (short) delta);
+          break;
+        default:
+          scoreMap.putInt(pos, delta);
+          break;
+      }
+    }
+
+    int gameFlags = widthCode;
+    if (played > _theGame.getNumberOfIntervals()) gameFlags |= FLAG_OVERTIME;
+    if (_theGame.isQuitGame()) gameFlags |= FLAG_QUIT;
+    flags.ensureGames(game + 1).put(game, (byte) gameFlags);
+    teams.ensureGames(game + 1).putShort(game * 2, (short) teamCount);
+    intervals.ensureGames(game + 1).putShort(game * 2, (short) played);
+    bases.ensureGames(game + 1).putInt(game * 4, base);
+    offsets.ensureGames(game + 1).putLong(game * 8, scoresEnd);
+    sports.ensureGames(game + 1).put(game, GameEventLog.sportCode(_theGame));
+    scoresEnd += (long) cells * width;
+    gameCount = game + 1;
+    return game;
+  }
+
+  /**
+   * Return the number of games in the archive
+   */
+  public int getGameCount() {
+    return gameCount;
+  }
+
+  /**
+   * Number of bytes game's scores take in scores.col
+   */
+  private long scoreBytes(int _game) {
+    int width = 1 << (flags.map.get(_game) & WIDTH_MASK);
+    return (long) (teams.map.getShort(_game * 2) & 0xffff) * (intervals.map.getShort(_game * 2) & 0xffff) * width;
+  }
+
+  /**
+   * Run a query over every game of a sport, the games are scanned in parallel slices
+   * that each have their own result and the results are combined at the end.
+   *
+   * @param _sportCode Sport to scan (see GameEventLog.sportCode), 0 for every sport
+   * @param _newResult Creates an empty result for a slice
+   * @param _scanner Adds a game to a result
+   * @param _combiner Combines two results (it can add the second into the first and return it)
+   * @return A the combined result (an empty one when there are no games)
+   */
+  public <A> A scan(int _sportCode, Supplier<A> _newResult, GameScanner<A> _scanner, BinaryOperator<A> _combiner) {
+    int count = gameCount;
+    int slices = (count + SLICE_GAMES - 1) / SLICE_GAMES;
+    return IntStream.range(0, slices).parallel()
+                    .mapToObj(slice -> scanSlice(slice * SLICE_GAMES, Math.min(count, (slice + 1) * SLICE_GAMES),
+                                                 _sportCode, _newResult.get(), _scanner))
+                    .reduce(_combiner).orElseGet(_newResult);
+  }
+
+  /**
+   * Scan the games from _start up to (not including) _end into the result
+   */
+  private <A> A scanSlice(int _start, int _end, int _sportCode, A _result, GameScanner<A> _scanner) {
+    // The maps are only replaced when they grow, the ones we have hold every game we were given
+    MappedByteBuffer sportMap = sports.map;
+    MappedByteBuffer flagMap = flags.map;
+    MappedByteBuffer teamMap = teams.map;
+    MappedByteBuffer intervalMap = intervals.map;
+    MappedByteBuffer baseMap = bases.map;
+    MappedByteBuffer offsetMap = offsets.map;
+    MappedByteBuffer scoreMap = scores.map;
+
+    byte[] sliceSports = new byte[_end - _start];
+    sportMap.get(_start, sliceSports);
+    byte[] raw = new byte[256];
+    int[] decoded = new int[64];
+    for (int i = 0; i < sliceSports.length; i++) {
+      int sportCode = sliceSports[i];
+      if (_sportCode != 0 && sportCode != _sportCode) continue;
+      int game = _start + i;
+      int gameFlags = flagMap.get(game);
+      int teamCount = teamMap.getShort(game * 2) & 0xffff;
+      int played = intervalMap.getShort(game * 2) & 0xffff;
+      int cells = teamCount * played;
+      int width = 1 << (gameFlags & WIDTH_MASK);
+      if (raw.length < cells * width) raw = new byte[Math.max(cells * width, raw.length * 2)];
+      if (decoded.length < cells) decoded = new int[Math.max(cells, decoded.length * 2)];
+      scoreMap.get((int) offsetMap.getLong(game * 8), raw, 0, cells * width);
+      decode(raw, width, cells, baseMap.getInt(game * 4), decoded);
+      _scanner.scan(_result, sportCode, gameFlags & ~WIDTH_MASK, teamCount, played, decoded);
+    }
+    return _result;
+  }
+
+  /**
+   * Turn the stored deltas back into scores, one tight loop per width
+   */
+  private static void decode(byte[] _raw, int _width, int _cells, int _base, int[] _scores) {
+    switch (_width) {
+      case 1:
+        for (int i = 0; i < _cells; i++) {
+          _scores[i] = _base + (_raw[i] & 0xff);
+        }
+        break;
+      case 2:
+        for (int i = 0; i < _cells; i++) {
+          _scores[i] = _base + (((_raw[i * 2] & 0xff) << 8) | (_raw[i * 2 + 1] & 0xff));
+        }
+        break;
+      default:
+        for (int i = 0; i < _cells; i++) {
+          _scores[i] = (_raw[i * 4] << 24) | ((_raw[i * 4 + 1] & 0xff) << 16)
+                       | ((_raw[i * 4 + 2] & 0xff) << 8) | (_raw[i * 4 + 3] & 0xff);
+        }
+        break;
+    }
+  }
+
+  /**
+   * Totals by interval that the built in queries add up, grown as longer games are seen
+   */
+  private static final class IntervalTotals {
+    long[] sum = new long[8];
+    long[] count = new long[8];
+    long games;
+    long hits;         // Games (or tennis games) that had what the query is counting
+
+    void grow(int _size) {
+      if (_size <= sum.length) return;
+      int newSize = Math.max(_size, sum.length * 2);
+      sum = Arrays.copyOf(sum, newSize);
+      count = Arrays.copyOf(count, newSize);
+    }
+
+    IntervalTotals add(IntervalTotals _other) {
+      grow(_other.sum.length);
+      for (int i = 0; i < _other.sum.length; i++) {
+        sum[i] += _other.sum[i];
+        count[i] += _other.count[i];
+      }
+      games += _other.games;
+      hits += _other.hits;
+      return this;
+    }
+  }
+
+  /**
+   * Return the number of games of a sport in the archive
+   *
+   * @param _sportCode Sport (0 for every sport)
+   * @return long number of games
+   */
+  public long countGames(int _sportCode) {
+    return scan(_sportCode, IntervalTotals::new, (totals, sport, gameFlags, teamCount, played, gameScores) -> totals.games++,
+                IntervalTotals::add).games;
+  }
+
+  /**
+   * Return the average score a team has in each interval (i.e. points per quarter or
+   * strokes on a hole), games that were quit aren't counted
+   *
+   * @param _sportCode Sport to average
+   * @return double[] average by interval, [0] is the 1st interval (overtime intervals follow the regulation ones)
+   */
+  public double[] averageScoreByInterval(int _sportCode) {
+    return averageScoreByInterval(_sportCode, 0);
+  }
+
+  /**
+   * Return the average score a team has in each interval with the intervals folded every
+   * _foldEvery, i.e. 18 for golf gives the average strokes on each hole of the course
+   * over every round played
+   *
+   * @param _sportCode Sport to average
+   * @param _foldEvery Fold the intervals every this many (0 doesn't fold)
+   * @return double[] average by (folded) interval, [0] is the 1st interval
+   */
+  public double[] averageScoreByInterval(int _sportCode, int _foldEvery) {
+    IntervalTotals totals = scan(_sportCode, IntervalTotals::new, (result, sport, gameFlags, teamCount, played, gameScores) -> {
+      if ((gameFlags & FLAG_QUIT) != 0) return;
+      int slots = (_foldEvery > 0 ? Math.min(played, _foldEvery) : played);
+      result.grow(slots);
+      for (int interval = 0; interval < played; interval++) {
+        int slot = (_foldEvery > 0 ? interval % _foldEvery : interval);
+        long sum = 0;
+        int first = interval * teamCount;
+        for (int i = first; i < first + teamCount; i++) {
+          sum += gameScores[i];
+        }
+        result.sum[slot] += sum;
+        result.count[slot] += teamCount;
+      }
+    }, IntervalTotals::add);
+
+    int slots = 0;
+    while (slots < totals.count.length && totals.count[slots] > 0) slots++;
+    double[] averages = new double[slots];
+    for (int i = 0; i < slots; i++) {
+      averages[i] = (double) totals.sum[i] / totals.count[i];
+    }
+    return averages;
+  }
+
+  /**
+   * Return the fraction of a sport's games (that weren't quit) that went to overtime
+   *
+   * @param _sportCode Sport
+   * @return double 0 to 1 (0 when there are no games)
+   */
+  public double overtimeRate(int _sportCode) {
+    IntervalTotals totals = scan(_sportCode, IntervalTotals::new, (result, sport, gameFlags, teamCount, played, gameScores) -> {
+      if ((gameFlags & FLAG_QUIT) != 0) return;
+      result.games++;
+      if ((gameFlags & FLAG_OVERTIME) != 0) result.hits++;
+    }, IntervalTotals::add);
+    return (totals.games == 0 ? 0 : (double) totals.hits / totals.games);
+  }
+
+  /**
+   * Return the fraction of tennis games (one pair of players in one interval) that got
+   * to deuce, that's both players getting to Forty
+   *
+   * @return double 0 to 1 (0 when there are no tennis games)
+   */
+  public double deuceRate() {
+    IntervalTotals totals = scan(GameEventLog.SPORT_TENNIS, IntervalTotals::new, (result, sport, gameFlags, teamCount, played, gameScores) -> {
+      int pairs = teamCount / 2;
+      for (int interval = 0; interval < played; interval++) {
+        int first = interval * teamCount;
+        for (int pair = 0; pair < pairs; pair++) {
+          int score1 = gameScores[first + pair * 2];
+          int score2 = gameScores[first + pair * 2 + 1];
+          if (score1 + score2 == 0) continue;     // Not played (i.e. the interval the game ended in)
+          result.games++;
+          if (score1 >= 3 && score2 >= 3) result.hits++;
+        }
+      }
+    }, IntervalTotals::add);
+    return (totals.games == 0 ? 0 : (double) totals.hits / totals.games);
+  }
+
+  /**
+   * Write a season summary of every sport in the archive
+   *
+   * @param _out Where to write it
+   */
+  public void report(PrintStream _out) {
+    _out.format("%-18s%d%n", "Games", getGameCount());
+    // One pass to see which sports are in the archive, then the queries for each of them
+    long[] gamesBySport = scan(0, () -> new long[Byte.MAX_VALUE + 1],
+                               (result, sport, gameFlags, teamCount, played, gameScores) -> result[sport]++,
+                               (first, second) -> {
+                                 for (int i = 0; i < first.length; i++) first[i] += second[i];
+                                 return first;
+                               });
+    for (int sportCode = 1; sportCode <= Byte.MAX_VALUE; sportCode++) {
+      long games = gamesBySport[sportCode];
+      if (games == 0) continue;
+      _out.format("%n%s: %d games, %.1f%% overtime%n", GameEventLog.sportName(sportCode), games, overtimeRate(sportCode) * 100);
+      double[] averages = averageScoreByInterval(sportCode, (sportCode == GameEventLog.SPORT_GOLF ? 18 : 0));
+      for (int i = 0; i < averages.length; i++) {
+        _out.format("  %-16s%.2f%n", (sportCode == GameEventLog.SPORT_GOLF ? "Hole " : "Interval ") + (i + 1), averages[i]);
+      }
+      if (sportCode == GameEventLog.SPORT_TENNIS) {
+        _out.format("  %-16s%.1f%%%n", "Deuce", deuceRate() * 100);
+      }
+    }
+  }
+
+  /**
+   * Force what we have to disk
+   */
+  public synchronized void sync() {
+    scores.map.force();
+    flags.map.force();
+    teams.map.force();
+    intervals.map.force();
+    bases.map.force();
+    offsets.map.force();
+    sports.map.force();
+  }
+
+  /**
+   * Force what we have to disk and close the files
+   *
+   * @throws IOException if a close fails
+   */
+  public synchronized void close() throws IOException {
+    sync();
+    for (Column column : new Column[] {sports, flags, teams, intervals, bases, offsets, scores}) {
+      column.channel.close();
+    }
+  }
+
+  /**
+   * One column file, mapped whole and mapped again (bigger) when it's about to fill up
+   */
+  private static final class Column {
+    final FileChannel channel;
+    final int width;                     // Bytes per game (for the per game columns)
+    volatile MappedByteBuffer map;
+
+    Column(Path _file, int _width) throws IOException {
+      channel = FileChannel.open(_file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      width = _width;
+      map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), (long) INITIAL_GAMES * width));
+    }
+
+    /**
+     * Make sure the map holds _games games and return it
+     */
+    MappedByteBuffer ensureGames(int _games) {
+      ensure((long) _games * width);
+      return map;
+    }
+
+    /**
+     * Make sure the map holds _bytes bytes (doubling it when it doesn't)
+     */
+    void ensure(long _bytes) {
+      if (_bytes <= map.capacity()) return;
+      if (_bytes > Integer.MAX_VALUE) throw new IllegalStateException("Archive is full");
+      try {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Math.max(_bytes, map.capacity() * 2L), Integer.MAX_VALUE));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
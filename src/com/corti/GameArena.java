@@ -0,0 +1,548 @@
+package com.corti;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * This class stores the live state of a lot of games (100k+) outside the java heap.  A
+ * SportsGame is a dozen objects (strings, arrays, locks, caches) which is fine for a few
+ * games but at that many it's a lot of heap for the garbage collector to go over again and
+ * again.  Here every game is a fixed size slot in a direct ByteBuffer slab:
+ * <pre>
+ *   byte   sport code (see GameEventLog.sportCode, 0 means the slot is free)
+ *   byte   flags (FLAG_xxx below)
+ *   short  number of teams
+ *   short  number of regulation intervals
+ *   short  current interval
+ *   int    total for each team (maxTeams of them)
+ *   int    score for each interval and team, interval by interval (maxIntervals rows)
+ * </pre>
+ * Games are scored through an ArenaGame, a flyweight view that's pointed at a game's slot
+ * (moveTo) and has the SportsGame scoring methods (addScore, advanceInterval, quitGame,
+ * getScore, runTotal, getLeader...) so one view object can score any number of games.
+ * The view follows the rules every sport shares: a game is over after its last interval
+ * unless it's tied and the sport has overtime.  Sports where the score ends an interval
+ * (tennis, rule based sports) can't be scored that way, allocate won't create them and
+ * store keeps them read only (the view's addScore, advanceInterval and quitGame throw),
+ * score them as a SportsGame and store them again.  Golf with its own course isn't taken
+ * at all since the slot has nowhere for the pars.  toGame gives back a real SportsGame
+ * for any game in the arena.
+ * <p>
+ * Scores are added like a concurrent SportsGame: scorers share a read lock and add to the
+ * cells atomically, advancing and quitting take the write lock.  The locks are striped by
+ * slab (LOCK_STRIPES of them, slab n uses lock n % LOCK_STRIPES) so advancing a game only
+ * holds up scorers of games in the same stripe, not the whole arena.  Handing out and
+ * releasing slots is synchronized on the arena.  snapshot holds that and every stripe's
+ * write lock while it copies the slabs, which gives a consistent copy of every game at
+ * once (restore it with fromSnapshot).
+ */
+public class GameArena {
+  public static final int FLAG_GAME_OVER = 1;
+  public static final int FLAG_QUIT = 2;
+  public static final int FLAG_OVERTIME_ALLOWED = 4;
+  public static final int FLAG_TEAM_SPORT = 8;
+  public static final int FLAG_READ_ONLY = 16;     // Sport the view can't score (see isScoredByArena)
+
+  private static final int HEADER_SIZE = 8;
+  private static final int SLAB_SIZE = 16 * 1024 * 1024;   // Bytes per slab (at least one slot)
+  private static final int SNAPSHOT_MAGIC = 0x47415245;     // "GARE"
+  private static final VarHandle INT_CELL = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+  private static final int LOCK_STRIPES = 64;                // Power of 2
+
+  private final int maxTeams;
+  private final int maxIntervals;
+  private final int slotSize;
+  private final int slotsPerSlab;
+  private final StampedLock[] locks = new StampedLock[LOCK_STRIPES];
+  private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+  // Guarded by this
+  private int nextSlot;                   // Slots below this have been handed out at some point
+  private int[] freeSlots = new int[16];  // Released slots to hand out again
+  private int freeCount;
+  private int gameCount;
+
+  // Sport code, intervals and flags for 'sport/players', so allocate only creates a game the first time
+  private static final Map<String, int[]> SPORT_CONFIG = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param _maxTeams Most teams a game in the arena can have
+   * @param _maxIntervals Most intervals a game can play, overtime included
+   */
+  public GameArena(int _maxTeams, int _maxIntervals) {
+    if (_maxTeams < 1 || _maxTeams > Short.MAX_VALUE || _maxIntervals < 1 || _maxIntervals > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Teams and intervals must be 1 to " + Short.MAX_VALUE);
+    }
+    maxTeams = _maxTeams;
+    maxIntervals = _maxIntervals;
+    long size = HEADER_SIZE + 4L * maxTeams * (1L + maxIntervals);
+    if (size > SLAB_SIZE) throw new IllegalArgumentException("A game that big doesn't fit in a slab");
+    slotSize = (int) ((size + 7) & ~7L);
+    slotsPerSlab = SLAB_SIZE / slotSize;
+    for (int i = 0; i < LOCK_STRIPES; i++) locks[i] = new StampedLock();
+  }
+
+  /**
+   * Add a new game of the sport passed in and return its id
+   *
+   * @param _sport Name of the sport (anything GameRegistry.createGame takes)
+   * @param _numberOfPlayers Number of players (ignored for football)
+   * @return int game id in the arena
+   * @throws IllegalArgumentException if the sport or players aren't valid, the sport can't be
+   *                                  scored in the arena (tennis, rule based) or the game doesn't fit
+   */
+  public int allocate(String _sport, int _numberOfPlayers) {
+    int[] config = SPORT_CONFIG.computeIfAbsent(_sport.toLowerCase() + "/" + _numberOfPlayers, key -> {
+      SportsGame prototype = GameRegistry.createGame(_sport, _numberOfPlayers);
+      if (prototype == null) return null;
+      int flags = (prototype.isOvertimeAllowed() ? FLAG_OVERTIME_ALLOWED : 0) | (prototype.isATeamSport() ? FLAG_TEAM_SPORT : 0);
+      return new int[] {GameEventLog.sportCode(prototype), prototype.getNumberOfTeams(), prototype.getNumberOfIntervals(), flags};
+    });
+    if (config == null) throw new IllegalArgumentException("Can't create " + _sport + " for " + _numberOfPlayers + " players");
+    if (isScoredByArena(config[0]) == false) {
+      throw new IllegalArgumentException(_sport + " can't be scored in the arena, store a SportsGame instead");
+    }
+    synchronized (this) {
+      int gameId = takeSlot(config[1], config[2]);
+      StampedLock lock = lockFor(gameId);
+      long stamp = lock.writeLock();
+      try {
+        writeHeader(gameId, config[0], config[3], config[1], config[2], 1);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+      return gameId;
+    }
+  }
+
+  /**
+   * Put a game that's being scored as a SportsGame into the arena (from then on score the
+   * arena's copy); tennis and rule based games are read only in the arena
+   *
+   * @param _theGame The game
+   * @return int game id in the arena
+   * @throws IllegalArgumentException if the game doesn't fit or is golf with its own course
+   */
+  public int store(SportsGame _theGame) {
+    if (_theGame instanceof Golf && ((Golf) _theGame).isStandardCourse() == false) {
+      throw new IllegalArgumentException("Golf with its own course can't be stored in the arena");
+    }
+    int sportCode = GameEventLog.sportCode(_theGame);
+    ScoreboardSnapshot snapshot = _theGame.snapshot();
+    int teams = snapshot.getNumberOfTeams();
+    int played = snapshot.getCurrentInterval();
+    int flags = (_theGame.isOvertimeAllowed() ? FLAG_OVERTIME_ALLOWED : 0) | (_theGame.isATeamSport() ? FLAG_TEAM_SPORT : 0)
+                | (snapshot.isGameOver() ? FLAG_GAME_OVER : 0) | (_theGame.isQuitGame() ? FLAG_QUIT : 0)
+                | (isScoredByArena(sportCode) ? 0 : FLAG_READ_ONLY);
+    if (played > maxIntervals) throw new IllegalArgumentException("Game has played more intervals than the arena holds");
+    synchronized (this) {
+      int gameId = takeSlot(teams, _theGame.getNumberOfIntervals());
+      StampedLock lock = lockFor(gameId);
+      long stamp = lock.writeLock();
+      try {
+        writeHeader(gameId, sportCode, flags, teams, _theGame.getNumberOfIntervals(), played);
+        ByteBuffer slab = slab(gameId);
+        int base = slotOffset(gameId);
+        for (int teamId = 1; teamId <= teams; teamId++) {
+          slab.putInt(base + HEADER_SIZE + (teamId - 1) * 4, snapshot.runTotal(teamId - 1));
+          for (int interval = 1; interval <= played; interval++) {
+            slab.putInt(cellOffset(base, teams, interval, teamId), snapshot.getScore(teamId, interval));
+          }
+        }
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+      return gameId;
+    }
+  }
+
+  /**
+   * Return a SportsGame with the state of a game in the arena (it's a copy, scoring it
+   * doesn't change the arena)
+   *
+   * @param _gameId The game id
+   * @return SportsGame
+   * @throws IllegalArgumentException if there's no game with that id or its sport isn't known
+   */
+  public SportsGame toGame(int _gameId) {
+    StampedLock lock = lockFor(_gameId);
+    long stamp = lock.readLock();
+    try {
+      checkGame(_gameId);
+      ByteBuffer slab = slab(_gameId);
+      int base = slotOffset(_gameId);
+      int teams = slab.getShort(base + 2);
+      int current = slab.getShort(base + 6);
+      int[] scores = new int[teams * current];
+      for (int i = 0; i < scores.length; i++) {
+        scores[i] = slab.getInt(base + HEADER_SIZE + maxTeams * 4 + i * 4);
+      }
+      int flags = slab.get(base + 1);
+      return GameCodec.rebuild(slab.get(base), teams, slab.getShort(base + 4), current, scores,
+                               (flags & FLAG_GAME_OVER) != 0, (flags & FLAG_QUIT) != 0, null);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Free a game's slot (its id can be given to a new game)
+   *
+   * @param _gameId The game id
+   */
+  public synchronized void release(int _gameId) {
+    StampedLock lock = lockFor(_gameId);
+    long stamp = lock.writeLock();
+    try {
+      checkGame(_gameId);
+      ByteBuffer slab = slab(_gameId);
+      int base = slotOffset(_gameId);
+      for (int pos = base; pos < base + slotSize; pos += 8) slab.putLong(pos, 0L);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+    if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+    freeSlots[freeCount++] = _gameId;
+    gameCount--;
+  }
+
+  /**
+   * Return a view to score and read games with, point it at a game with moveTo
+   */
+  public ArenaGame newView() {
+    return new ArenaGame();
+  }
+
+  /**
+   * Return a view of a game
+   *
+   * @param _gameId The game id
+   */
+  public ArenaGame view(int _gameId) {
+    return new ArenaGame().moveTo(_gameId);
+  }
+
+  /**
+   * Return the number of games in the arena
+   */
+  public synchronized int getGameCount() {
+    return gameCount;
+  }
+
+  /**
+   * Return the bytes of direct memory the arena has allocated
+   */
+  public long getOffHeapBytes() {
+    return (long) slabs.length * slotsPerSlab * slotSize;
+  }
+
+  /**
+   * Return a copy of every game in the arena as it is right now, the slabs are copied
+   * while every stripe is locked so scoring waits.  The copy is on the heap and can be
+   * written anywhere.
+   *
+   * @return ByteBuffer holding the snapshot (position 0, limit the end of it)
+   * @throws IllegalStateException if the arena is 2GB or more (a heap buffer can't hold it)
+   */
+  public synchronized ByteBuffer snapshot() {
+    long[] stamps = new long[LOCK_STRIPES];
+    for (int i = 0; i < LOCK_STRIPES; i++) stamps[i] = locks[i].writeLock();
+    try {
+      ByteBuffer[] current = slabs;
+      long size = 20 + (long) current.length * slotsPerSlab * slotSize;
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IllegalStateException("Arena is too big to snapshot into one buffer (" + size + " bytes)");
+      }
+      ByteBuffer copy = ByteBuffer.allocate((int) size);
+      copy.putInt(SNAPSHOT_MAGIC).putInt(maxTeams).putInt(maxIntervals).putInt(current.length).putInt(nextSlot);
+      for (ByteBuffer slab : current) {
+        copy.put(slab.duplicate().clear());
+      }
+      return copy.flip();
+    } finally {
+      for (int i = 0; i < LOCK_STRIPES; i++) locks[i].unlockWrite(stamps[i]);
+    }
+  }
+
+  /**
+   * Create an arena from a snapshot (see snapshot)
+   *
+   * @param _snapshot The snapshot
+   * @return GameArena with the same games (same ids)
+   * @throws IllegalArgumentException if it isn't a snapshot
+   */
+  public static GameArena fromSnapshot(ByteBuffer _snapshot) {
+    ByteBuffer in = _snapshot.duplicate();
+    if (in.remaining() < 20 || in.getInt() != SNAPSHOT_MAGIC) throw new IllegalArgumentException("Not an arena snapshot");
+    GameArena arena = new GameArena(in.getInt(), in.getInt());
+    int slabCount = in.getInt();
+    int slots = in.getInt();
+    int slabBytes = arena.slotsPerSlab * arena.slotSize;
+    if (slabCount < 0 || in.remaining() != (long) slabCount * slabBytes) throw new IllegalArgumentException("Arena snapshot is truncated");
+    ByteBuffer[] slabs = new ByteBuffer[slabCount];
+    for (int i = 0; i < slabCount; i++) {
+      slabs[i] = ByteBuffer.allocateDirect(slabBytes).order(ByteOrder.nativeOrder());
+      slabs[i].put(in.slice(in.position(), slabBytes));
+      in.position(in.position() + slabBytes);
+    }
+    arena.slabs = slabs;
+    arena.nextSlot = slots;
+    for (int gameId = 0; gameId < slots; gameId++) {
+      if (arena.slab(gameId).get(arena.slotOffset(gameId)) == 0) {
+        if (arena.freeCount == arena.freeSlots.length) arena.freeSlots = Arrays.copyOf(arena.freeSlots, arena.freeCount * 2);
+        arena.freeSlots[arena.freeCount++] = gameId;
+      } else {
+        arena.gameCount++;
+      }
+    }
+    return arena;
+  }
+
+  /**
+   * Return indicator if the view can score the sport; tennis and rule based sports end
+   * intervals on the score (and tennis counts wins), which the view doesn't know about
+   */
+  private static boolean isScoredByArena(int _sportCode) {
+    return (_sportCode != GameEventLog.SPORT_TENNIS && _sportCode < GameEventLog.SPORT_RULES);
+  }
+
+  /**
+   * Hand out a slot (a free one if there is one), call while synchronized on the arena
+   */
+  private int takeSlot(int _teams, int _intervals) {
+    if (_teams > maxTeams || _intervals > maxIntervals) {
+      throw new IllegalArgumentException("Game doesn't fit in the arena (" + _teams + " teams, " + _intervals + " intervals)");
+    }
+    int gameId;
+    if (freeCount > 0) {
+      gameId = freeSlots[--freeCount];
+    } else {
+      gameId = nextSlot++;
+      if (gameId / slotsPerSlab >= slabs.length) {
+        ByteBuffer[] newSlabs = Arrays.copyOf(slabs, slabs.length + 1);
+        newSlabs[slabs.length] = ByteBuffer.allocateDirect(slotsPerSlab * slotSize).order(ByteOrder.nativeOrder());
+        slabs = newSlabs;
+      }
+    }
+    gameCount++;
+    return gameId;
+  }
+
+  private void writeHeader(int _gameId, int _sportCode, int _flags, int _teams, int _intervals, int _currentInterval) {
+    ByteBuffer slab = slab(_gameId);
+    int base = slotOffset(_gameId);
+    slab.put(base, (byte) _sportCode);
+    slab.put(base + 1, (byte) _flags);
+    slab.putShort(base + 2, (short) _teams);
+    slab.putShort(base + 4, (short) _intervals);
+    slab.putShort(base + 6, (short) _currentInterval);
+  }
+
+  /**
+   * Throw if there's no game in the slot, the slot's lock must be held (slots past the
+   * ones handed out are zero)
+   */
+  private void checkGame(int _gameId) {
+    if (_gameId < 0 || _gameId / slotsPerSlab >= slabs.length || slab(_gameId).get(slotOffset(_gameId)) == 0) {
+      throw new IllegalArgumentException("No game " + _gameId + " in the arena");
+    }
+  }
+
+  private ByteBuffer slab(int _gameId) {
+    return slabs[_gameId / slotsPerSlab];
+  }
+
+  /**
+   * Return the lock for the stripe the game's slab is in
+   */
+  private StampedLock lockFor(int _gameId) {
+    return locks[(_gameId / slotsPerSlab) & (LOCK_STRIPES - 1)];
+  }
+
+  private int slotOffset(int _gameId) {
+    return (_gameId % slotsPerSlab) * slotSize;
+  }
+
+  private int cellOffset(int _base, int _teams, int _interval, int _teamId) {
+    return _base + HEADER_SIZE + maxTeams * 4 + ((_interval - 1) * _teams + (_teamId - 1)) * 4;
+  }
+
+  /**
+   * This class is a flyweight view of one game in the arena, it holds nothing but where
+   * the game is so moving it to another game is free.  A view isn't thread safe (give each
+   * thread its own), the games it looks at can be scored by any number of views at once.
+   */
+  public final class ArenaGame {
+    private int gameId = -1;
+    private ByteBuffer slab;
+    private StampedLock lock;             // The stripe the game's slab is in
+    private int base;
+
+    /**
+     * Point the view at a game
+     *
+     * @param _gameId The game id
+     * @return ArenaGame this view
+     * @throws IllegalArgumentException if there's no game with that id
+     */
+    public ArenaGame moveTo(int _gameId) {
+      StampedLock gameLock = lockFor(_gameId);
+      long stamp = gameLock.readLock();
+      try {
+        checkGame(_gameId);
+        slab = slab(_gameId);
+      } finally {
+        gameLock.unlockRead(stamp);
+      }
+      lock = gameLock;
+      gameId = _gameId;
+      base = slotOffset(_gameId);
+      return this;
+    }
+
+    public int getGameId() {
+      return gameId;
+    }
+
+    public String getSportName() {
+      return GameEventLog.sportName(slab.get(base));
+    }
+
+    public boolean isATeamSport() {
+      return ((slab.get(base + 1) & FLAG_TEAM_SPORT) != 0);
+    }
+
+    public int getNumberOfTeams() {
+      return slab.getShort(base + 2);
+    }
+
+    public int getNumberOfIntervals() {
+      return slab.getShort(base + 4);
+    }
+
+    public int getCurrentInterval() {
+      return slab.getShort(base + 6);
+    }
+
+    public boolean isGameOver() {
+      return ((slab.get(base + 1) & FLAG_GAME_OVER) != 0);
+    }
+
+    public boolean inOvertime() {
+      return (getCurrentInterval() > getNumberOfIntervals());
+    }
+
+    /**
+     * Return indicator if the game can only be read here (tennis, rule based sports)
+     */
+    public boolean isReadOnly() {
+      return ((slab.get(base + 1) & FLAG_READ_ONLY) != 0);
+    }
+
+    private void checkScorable() {
+      if (isReadOnly()) throw new IllegalStateException(getSportName() + " game " + gameId + " is read only in the arena");
+    }
+
+    /**
+     * Add the score passed in for the associated team (ignored for a team that isn't in
+     * the game or once the game is over)
+     *
+     * @param _teamId teamId (integer from 1->numberOfTeams)
+     * @param _score  score
+     * @throws IllegalStateException if the game is read only
+     */
+    public void addScore(int _teamId, int _score) {
+      long stamp = lock.readLock();
+      try {
+        checkScorable();
+        int teams = getNumberOfTeams();
+        if (_teamId < 1 || _teamId > teams || isGameOver()) return;
+        INT_CELL.getAndAdd(slab, cellOffset(base, teams, getCurrentInterval(), _teamId), _score);
+        INT_CELL.getAndAdd(slab, base + HEADER_SIZE + (_teamId - 1) * 4, _score);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    /**
+     * Move to the next interval or end the game (see SportsGame.advanceInterval)
+     *
+     * @throws IllegalStateException if the game needs more intervals than the arena holds or is read only
+     */
+    public void advanceInterval() {
+      long stamp = lock.writeLock();
+      try {
+        checkScorable();
+        int flags = slab.get(base + 1);
+        if ((flags & FLAG_GAME_OVER) != 0) return;
+        int current = getCurrentInterval();
+        if (current >= getNumberOfIntervals() && (getLeader() != 0 || (flags & FLAG_OVERTIME_ALLOWED) == 0)) {
+          slab.put(base + 1, (byte) (flags | FLAG_GAME_OVER));
+          return;
+        }
+        if (current >= maxIntervals) throw new IllegalStateException("Game " + gameId + " has used every interval the arena holds");
+        slab.putShort(base + 6, (short) (current + 1));    // The new row is 0 already
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * End the game
+     *
+     * @throws IllegalStateException if the game is read only
+     */
+    public void quitGame() {
+      long stamp = lock.writeLock();
+      try {
+        checkScorable();
+        slab.put(base + 1, (byte) (slab.get(base + 1) | FLAG_GAME_OVER | FLAG_QUIT));
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * Return the score for a team in an interval, Integer.MIN_VALUE if the team or interval
+     * isn't valid (same as SportsGame.getScore)
+     */
+    public int getScore(int _teamId, int _interval) {
+      int teams = getNumberOfTeams();
+      if (_teamId < 1 || _teamId > teams || _interval < 1 || _interval > getCurrentInterval()) return Integer.MIN_VALUE;
+      return (int) INT_CELL.getVolatile(slab, cellOffset(base, teams, _interval, _teamId));
+    }
+
+    /**
+     * Return total for the team passed in (use 0 offset i.e. 0 is team 1)
+     */
+    public int runTotal(int _teamPosMinusOne) {
+      return (int) INT_CELL.getVolatile(slab, base + HEADER_SIZE + _teamPosMinusOne * 4);
+    }
+
+    /**
+     * Return the team with the highest total, 0 when it's tied at the top
+     */
+    public int getLeader() {
+      int leader = 0;
+      int best = Integer.MIN_VALUE;
+      for (int team = 0; team < getNumberOfTeams(); team++) {
+        int total = runTotal(team);
+        if (total > best) {
+          best = total;
+          leader = team + 1;
+        } else if (total == best) {
+          leader = 0;
+        }
+      }
+      return leader;
+    }
+  }
+}
@@ -0,0 +1,500 @@
+package com.corti;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class saves a game's state so it can be sent to another process or archived, and
+ * turns it back into a game you can carry on scoring.  There are two formats:
+ * <p>
+ * Binary, which is as small as we can make it; every number is a varint (7 bits a byte)
+ * and the scores are zigzag encoded so small negative numbers stay small too:
+ * <pre>
+ *   'G' version sportCode flags          4 bytes (flags: 1 game over, 2 quit, 4 overtime allowed, 8 team sport)
+ *   teams intervals currentInterval      varints
+ *   holes par...                         varints, golf only (the course, so custom pars come back)
+ *   score for every interval/team        zigzag varints, interval-major (same as the scoreboard)
+ * </pre>
+ * JSON, for anything that wants to read it without us:
+ * <pre>
+ *   {"sport":"Tennis","sportCode":2,"teamSport":true,"teams":2,"intervals":6,"intervalName":"Game",
+ *    "overtimeAllowed":true,"currentInterval":2,"gameOver":false,"quit":false,
+ *    "scores":[[4,2],[1,0]],"totals":[5,2],"wins":[1,0]}
+ * </pre>
+ * golf has the course too, "pars":[4,4,3,...] (one per hole of a round).
+ * The totals (and tennis wins) are in the JSON for readers, when we read it back they're
+ * worked out from the scores again (that's how the game itself works them out).
+ * <p>
+ * Both writers work from the game's snapshot so a game that's being scored can be saved.
+ * A codec reuses its buffer from one game to the next so keep one per thread.
+ */
+public class GameCodec {
+  private static final byte MAGIC = 'G';
+  private static final byte VERSION = 2;         // 2 added the golf course, 1 is still read
+
+  private static final int FLAG_GAME_OVER = 1;
+  private static final int FLAG_QUIT = 2;
+  private static final int FLAG_OVERTIME = 4;
+  private static final int FLAG_TEAM_SPORT = 8;
+
+  private byte[] buffer = new byte[256];    // Binary encoding, reused
+  private int length;                       // Bytes used in buffer
+  private final char[] digits = new char[11];  // Scratch to write an int as JSON
+
+  // Used while reading JSON
+  private CharSequence json;
+  private int jsonPos;
+
+  /**
+   * Encode the game in the binary format and return it
+   *
+   * @param _theGame The game
+   * @return byte[] encoded game
+   */
+  public byte[] encode(SportsGame _theGame) {
+    encodeToBuffer(_theGame);
+    byte[] encoded = new byte[length];
+    System.arraycopy(buffer, 0, encoded, 0, length);
+    return encoded;
+  }
+
+  /**
+   * Encode the game in the binary format and write it to the stream (no copy is made)
+   *
+   * @param _theGame The game
+   * @param _out Where to write it
+   * @return int number of bytes written
+   * @throws IOException if the write fails
+   */
+  public int encode(SportsGame _theGame, OutputStream _out) throws IOException {
+    encodeToBuffer(_theGame);
+    _out.write(buffer, 0, length);
+    return length;
+  }
+
+  private void encodeToBuffer(SportsGame _theGame) {
+    ScoreboardSnapshot snapshot = _theGame.snapshot();
+    int teams = snapshot.getNumberOfTeams();
+    int flags = (snapshot.isGameOver() ? FLAG_GAME_OVER : 0)
+                | (_theGame.isQuitGame() ? FLAG_QUIT : 0)
+                | (_theGame.isOvertimeAllowed() ? FLAG_OVERTIME : 0)
+                | (snapshot.isATeamSport() ? FLAG_TEAM_SPORT : 0);
+    length = 0;
+    putByte(MAGIC);
+    putByte(VERSION);
+    putByte(GameEventLog.sportCode(_theGame));
+    putByte(flags);
+    putVarint(teams);
+    putVarint(_theGame.getNumberOfIntervals());
+    putVarint(snapshot.getCurrentInterval());
+    if (_theGame instanceof Golf) {
+      Golf golf = (Golf) _theGame;
+      putVarint(golf.getHolesPerRound());
+      for (int hole = 1; hole <= golf.getHolesPerRound(); hole++) putVarint(golf.getPar(hole));
+    }
+    for (int interval = 1; interval <= snapshot.getCurrentInterval(); interval++) {
+      for (int team = 1; team <= teams; team++) {
+        int score = snapshot.getScore(team, interval);
+        putVarint((score << 1) ^ (score >> 31));
+      }
+    }
+  }
+
+  private void putByte(int _value) {
+    if (length == buffer.length) {
+      byte[] newBuffer = new byte[buffer.length * 2];
+      System.arraycopy(buffer, 0, newBuffer, 0, length);
+      buffer = newBuffer;
+    }
+    buffer[length++] = (byte) _value;
+  }
+
+  private void putVarint(int _value) {
+    while ((_value & ~0x7F) != 0) {
+      putByte((_value & 0x7F) | 0x80);
+      _value >>>= 7;
+    }
+    putByte(_value);
+  }
+
+  /**
+   * Rebuild a game from the binary format, the game can be scored as if it was never
+   * saved.  It's a new game so it doesn't have concurrent scoring or an event log, add
+   * it to a GameRegistry for that.
+   *
+   * @param _data Encoded game
+   * @param _offset Position of the first byte
+   * @param _length Number of bytes
+   * @return SportsGame Football, Tennis or Golf
+   * @throws IllegalArgumentException if the data isn't a game we encoded
+   */
+  public SportsGame decode(byte[] _data, int _offset, int _length) {
+    int end = _offset + _length;
+    if (_length < 4 || _data[_offset] != MAGIC || _data[_offset + 1] < 1 || _data[_offset + 1] > VERSION) {
+      throw new IllegalArgumentException("Not an encoded game");
+    }
+    int sportCode = _data[_offset + 2];
+    int flags = _data[_offset + 3];
+    int[] pos = { _offset + 4 };
+    int teams = getVarint(_data, pos, end);
+    int intervals = getVarint(_data, pos, end);
+    int currentInterval = getVarint(_data, pos, end);
+    int[] pars = null;
+    if (sportCode == GameEventLog.SPORT_GOLF && _data[_offset + 1] >= 2) {
+      int holes = getVarint(_data, pos, end);
+      if (holes < 1 || holes > end - pos[0]) throw new IllegalArgumentException("Encoded game is corrupt");
+      pars = new int[holes];
+      for (int hole = 0; hole < holes; hole++) pars[hole] = getVarint(_data, pos, end);
+    }
+    if (teams < 1 || currentInterval < 1 || (long) teams * currentInterval > end - pos[0]) {
+      throw new IllegalArgumentException("Encoded game is corrupt");
+    }
+    int[] scores = new int[teams * currentInterval];
+    for (int i = 0; i < scores.length; i++) {
+      int zigzag = getVarint(_data, pos, end);
+      scores[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+    return rebuild(sportCode, teams, intervals, currentInterval, scores,
+                   (flags & FLAG_GAME_OVER) != 0, (flags & FLAG_QUIT) != 0, pars);
+  }
+
+  private static int getVarint(byte[] _data, int[] _pos, int _end) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      if (_pos[0] >= _end) throw new IllegalArgumentException("Encoded game is truncated");
+      byte b = _data[_pos[0]++];
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) return value;
+    }
+    throw new IllegalArgumentException("Encoded game is corrupt");
+  }
+
+  /**
+   * Create the game for the sport and put it back in the state it was saved in (GameArena
+   * uses this too), _pars is the golf course (null for a standard one)
+   */
+  static SportsGame rebuild(int _sportCode, int _teams, int _intervals, int _currentInterval,
+                            int[] _scores, boolean _gameOver, boolean _quit, int[] _pars) {
+    SportsGame theGame = null;
+    if ((_sportCode >= GameEventLog.SPORT_FOOTBALL && _sportCode <= GameEventLog.SPORT_GOLF)
+        || _sportCode >= GameEventLog.SPORT_RULES) {
+      theGame = GameRegistry.createGame(GameEventLog.sportName(_sportCode), _teams);
+    }
+    if (theGame instanceof Golf && _pars != null) {
+      // Course we were given, as many rounds of it as there are intervals for
+      theGame = (_intervals % _pars.length == 0 ? new Golf(_teams, _intervals / _pars.length, _pars) : null);
+    } else if (theGame instanceof Golf && _intervals > theGame.getNumberOfIntervals()
+        && _intervals % theGame.getNumberOfIntervals() == 0) {
+      // A tournament, more than one round (the course is taken to be a standard one)
+      theGame = new Golf(_teams, _intervals / theGame.getNumberOfIntervals());
+    }
+    if (theGame == null || theGame.getNumberOfTeams() != _teams || theGame.getNumberOfIntervals() != _intervals) {
+      throw new IllegalArgumentException("Saved game doesn't match any sport we score");
+    }
+    if (_currentInterval > _intervals && theGame.isOvertimeAllowed() == false) {
+      throw new IllegalArgumentException("Saved game is in overtime but the sport doesn't have it");
+    }
+    theGame.restoreState(_currentInterval, _scores, _gameOver, _quit);
+    return theGame;
+  }
+
+  /**
+   * Write the game as JSON (see the class comment for what it looks like), everything is
+   * appended a piece at a time so nothing is built up in memory first.
+   *
+   * @param _theGame The game
+   * @param _out Where to write it
+   * @throws IOException if the Appendable does
+   */
+  public void writeJson(SportsGame _theGame, Appendable _out) throws IOException {
+    ScoreboardSnapshot snapshot = _theGame.snapshot();
+    int teams = snapshot.getNumberOfTeams();
+    _out.append("{\"sport\":");
+    appendString(snapshot.getSportName(), _out);
+    _out.append(",\"sportCode\":");
+    appendInt(GameEventLog.sportCode(_theGame), _out);
+    _out.append(",\"teamSport\":").append(snapshot.isATeamSport() ? "true" : "false");
+    _out.append(",\"teams\":");
+    appendInt(teams, _out);
+    _out.append(",\"intervals\":");
+    appendInt(_theGame.getNumberOfIntervals(), _out);
+    _out.append(",\"intervalName\":");
+    appendString(_theGame.getIntervalName(), _out);
+    _out.append(",\"overtimeAllowed\":").append(_theGame.isOvertimeAllowed() ? "true" : "false");
+    _out.append(",\"currentInterval\":");
+    appendInt(snapshot.getCurrentInterval(), _out);
+    _out.append(",\"gameOver\":").append(snapshot.isGameOver() ? "true" : "false");
+    _out.append(",\"quit\":").append(_theGame.isQuitGame() ? "true" : "false");
+    if (_theGame instanceof Golf) {
+      Golf golf = (Golf) _theGame;
+      _out.append(",\"pars\":[");
+      for (int hole = 1; hole <= golf.getHolesPerRound(); hole++) {
+        if (hole > 1) _out.append(',');
+        appendInt(golf.getPar(hole), _out);
+      }
+      _out.append(']');
+    }
+
+    _out.append(",\"scores\":[");
+    for (int interval = 1; interval <= snapshot.getCurrentInterval(); interval++) {
+      if (interval > 1) _out.append(',');
+      _out.append('[');
+      for (int team = 1; team <= teams; team++) {
+        if (team > 1) _out.append(',');
+        appendInt(snapshot.getScore(team, interval), _out);
+      }
+      _out.append(']');
+    }
+    _out.append("],\"totals\":[");
+    for (int team = 0; team < teams; team++) {
+      if (team > 0) _out.append(',');
+      appendInt(snapshot.runTotal(team), _out);
+    }
+    _out.append(']');
+    if (snapshot.hasWins()) {
+      _out.append(",\"wins\":[");
+      for (int team = 1; team <= teams; team++) {
+        if (team > 1) _out.append(',');
+        appendInt(snapshot.getWins(team), _out);
+      }
+      _out.append(']');
+    }
+    _out.append('}');
+  }
+
+  /**
+   * Return the game as a JSON string (see writeJson)
+   */
+  public String toJson(SportsGame _theGame) {
+    StringBuilder json = new StringBuilder(128 + _theGame.getCurrentInterval() * _theGame.getNumberOfTeams() * 4);
+    try {
+      writeJson(_theGame, json);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);  // StringBuilder doesn't throw
+    }
+    return json.toString();
+  }
+
+  /**
+   * Append an int without creating a string for it
+   */
+  private void appendInt(int _value, Appendable _out) throws IOException {
+    if (_value == Integer.MIN_VALUE) {
+      _out.append("-2147483648");
+      return;
+    }
+    if (_value < 0) {
+      _out.append('-');
+      _value = -_value;
+    }
+    int pos = digits.length;
+    do {
+      digits[--pos] = (char) ('0' + _value % 10);
+      _value /= 10;
+    } while (_value != 0);
+    for (; pos < digits.length; pos++) _out.append(digits[pos]);
+  }
+
+  private static void appendString(String _value, Appendable _out) throws IOException {
+    _out.append('"');
+    for (int i = 0; i < _value.length(); i++) {
+      char c = _value.charAt(i);
+      if (c == '"' || c == '\\') {
+        _out.append('\\').append(c);
+      } else if (c < ' ') {
+        _out.append(String.format("\\u%04x", (int) c));
+      } else {
+        _out.append(c);
+      }
+    }
+    _out.append('"');
+  }
+
+  /**
+   * Rebuild a game from JSON written by writeJson; only the fields we need are looked at
+   * (sportCode, teams, intervals, currentInterval, gameOver, quit, scores and golf's pars), anything
+   * else is skipped so readers are free to add to it.
+   *
+   * @param _json The JSON
+   * @return SportsGame Football, Tennis or Golf
+   * @throws IllegalArgumentException if it isn't valid JSON or isn't a game
+   */
+  public SportsGame fromJson(CharSequence _json) {
+    json = _json;
+    jsonPos = 0;
+    int sportCode = 0, teams = 0, intervals = 0, currentInterval = 0;
+    boolean gameOver = false, quit = false;
+    int[] scores = null;
+    int[] pars = null;
+    int rows = 0;
+    try {
+      expect('{');
+      if (peek() != '}') {
+        do {
+          String key = readString();
+          expect(':');
+          switch (key) {
+            case "sportCode":       sportCode = readInt(); break;
+            case "teams":           teams = readInt(); break;
+            case "intervals":       intervals = readInt(); break;
+            case "currentInterval": currentInterval = readInt(); break;
+            case "gameOver":        gameOver = readBoolean(); break;
+            case "quit":            quit = readBoolean(); break;
+            case "pars":
+              pars = new int[18];
+              int holes = 0;
+              expect('[');
+              if (peek() != ']') {
+                do {
+                  if (holes == pars.length) pars = Arrays.copyOf(pars, holes * 2);
+                  pars[holes++] = readInt();
+                } while (nextIs(','));
+              }
+              expect(']');
+              if (holes == 0) throw new IllegalArgumentException("Golf course has no holes");
+              pars = Arrays.copyOf(pars, holes);
+              break;
+            case "scores":
+              // Rows come out interval-major, each row has a score per team
+              scores = new int[16];
+              int count = 0;
+              expect('[');
+              if (peek() != ']') {
+                do {
+                  expect('[');
+                  rows++;
+                  if (peek() != ']') {
+                    do {
+                      if (count == scores.length) scores = Arrays.copyOf(scores, count * 2);
+                      scores[count++] = readInt();
+                    } while (nextIs(','));
+                  }
+                  expect(']');
+                } while (nextIs(','));
+              }
+              expect(']');
+              if (teams > 0 && count != rows * teams) throw new IllegalArgumentException("Score rows don't match the teams");
+              scores = Arrays.copyOf(scores, count);
+              break;
+            default:
+              skipValue();
+              break;
+          }
+        } while (nextIs(','));
+      }
+      expect('}');
+    } finally {
+      json = null;
+    }
+    if (scores == null || teams < 1 || rows != currentInterval || scores.length != rows * teams) {
+      throw new IllegalArgumentException("JSON doesn't hold a game");
+    }
+    return rebuild(sportCode, teams, intervals, currentInterval, scores, gameOver, quit,
+                   (sportCode == GameEventLog.SPORT_GOLF ? pars : null));
+  }
+
+  private char peek() {
+    while (jsonPos < json.length() && Character.isWhitespace(json.charAt(jsonPos))) jsonPos++;
+    if (jsonPos == json.length()) throw new IllegalArgumentException("JSON ends too soon");
+    return json.charAt(jsonPos);
+  }
+
+  private void expect(char _c) {
+    if (peek() != _c) throw new IllegalArgumentException("Expected '" + _c + "' at " + jsonPos);
+    jsonPos++;
+  }
+
+  private boolean nextIs(char _c) {
+    if (peek() != _c) return false;
+    jsonPos++;
+    return true;
+  }
+
+  private int readInt() {
+    peek();
+    int start = jsonPos;
+    if (json.charAt(jsonPos) == '-') jsonPos++;
+    while (jsonPos < json.length() && Character.isDigit(json.charAt(jsonPos))) jsonPos++;
+    try {
+      return Integer.parseInt(json, start, jsonPos, 10);
+    } catch (NumberFormatException ne) {
+      throw new IllegalArgumentException("Expected a number at " + start);
+    }
+  }
+
+  private boolean readBoolean() {
+    if (peek() == 't' && matches("true")) return true;
+    if (peek() == 'f' && matches("false")) return false;
+    throw new IllegalArgumentException("Expected true or false at " + jsonPos);
+  }
+
+  private boolean matches(String _word) {
+    if (jsonPos + _word.length() > json.length()) return false;
+    for (int i = 0; i < _word.length(); i++) {
+      if (json.charAt(jsonPos + i) != _word.charAt(i)) return false;
+    }
+    jsonPos += _word.length();
+    return true;
+  }
+
+  private String readString() {
+    expect('"');
+    StringBuilder value = new StringBuilder();
+    while (true) {
+      if (jsonPos == json.length()) throw new IllegalArgumentException("JSON ends too soon");
+      char c = json.charAt(jsonPos++);
+      if (c == '"') return value.toString();
+      if (c == '\\') {
+        if (jsonPos == json.length()) throw new IllegalArgumentException("JSON ends too soon");
+        char escaped = json.charAt(jsonPos++);
+        switch (escaped) {
+          case 'n': value.append('\n'); break;
+          case 't': value.append('\t'); break;
+          case 'r': value.append('\r'); break;
+          case 'b': value.append('\b'); break;
+          case 'f': value.append('\f'); break;
+          case 'u':
+            if (jsonPos + 4 > json.length()) throw new IllegalArgumentException("JSON ends too soon");
+            value.append((char) Integer.parseInt(json, jsonPos, jsonPos + 4, 16));
+            jsonPos += 4;
+            break;
+          default: value.append(escaped); break;
+        }
+      } else {
+        value.append(c);
+      }
+    }
+  }
+
+  /**
+   * Skip a value we don't need (any JSON value, nested or not)
+   */
+  private void skipValue() {
+    char c = peek();
+    if (c == '"') {
+      readString();
+    } else if (c == '{' || c == '[') {
+      char close = (c == '{' ? '}' : ']');
+      jsonPos++;
+      if (peek() != close) {
+        do {
+          if (c == '{') {
+            readString();
+            expect(':');
+          }
+          skipValue();
+        } while (nextIs(','));
+      }
+      expect(close);
+    } else if (c == 't' || c == 'f') {
+      readBoolean();
+    } else if (c == 'n' && matches("null")) {
+      return;
+    } else {
+      int start = jsonPos;
+      while (jsonPos < json.length() && "+-.eE0123456789".indexOf(json.charAt(jsonPos)) >= 0) jsonPos++;
+      if (jsonPos == start) throw new IllegalArgumentException("Unexpected '" + c + "' at " + jsonPos);
+    }
+  }
+}
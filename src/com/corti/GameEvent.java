@@ -0,0 +1,102 @@
+package com.corti;
+
+/**
+ * This class is one change to a game that's pushed to subscribers of the game's events
+ * (see SportsGame.events()).  Events are immutable and the same event object is handed
+ * to every subscriber.
+ * <p>
+ * A subscriber that falls behind gets score events coalesced; points for the same team
+ * in the same interval are added together into one event (and a tennis call replaces
+ * the one before it in the same game), so the points and total are still right it just
+ * doesn't see every step.  Events that change the shape of the game (advances, overtime,
+ * game over, corrections) are never coalesced.  Undoing points is a SCORE_ADDED with the
+ * points taken off.
+ */
+public final class GameEvent {
+  /**
+   * What happened
+   */
+  public enum Type {
+    SCORE_ADDED,        // teamId scored points in interval, total is their total after it
+    INTERVAL_ADVANCED,  // interval is the new interval
+    OVERTIME_STARTED,   // interval is the first overtime interval (follows INTERVAL_ADVANCED)
+    GAME_OVER,          // interval is the last interval played, this is the last event
+    DEUCE,              // Tennis: teamId and otherTeamId are at deuce in interval
+    ADVANTAGE,          // Tennis: teamId has the advantage over otherTeamId in interval
+    CORRECTED           // An advance or game over was undone, interval is the interval now
+  }
+
+  private final Type type;
+  private final int interval;
+  private final int teamId;       // 0 when the event isn't about a team
+  private final int otherTeamId;  // Opponent for tennis calls, otherwise 0
+  private final int points;       // Points scored (summed when coalesced)
+  private final int total;        // Team's total after the points
+
+  GameEvent(Type _type, int _interval, int _teamId, int _otherTeamId, int _points, int _total) {
+    type = _type;
+    interval = _interval;
+    teamId = _teamId;
+    otherTeamId = _otherTeamId;
+    points = _points;
+    total = _total;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  public int getTeamId() {
+    return teamId;
+  }
+
+  public int getOtherTeamId() {
+    return otherTeamId;
+  }
+
+  public int getPoints() {
+    return points;
+  }
+
+  public int getTotal() {
+    return total;
+  }
+
+  /**
+   * Return a single event standing for this event and the later one passed in, or null
+   * if they can't be coalesced (see the class comment)
+   */
+  GameEvent coalesce(GameEvent _later) {
+    if (interval != _later.interval) return null;
+    if (type == Type.SCORE_ADDED && _later.type == Type.SCORE_ADDED && teamId == _later.teamId) {
+      return new GameEvent(Type.SCORE_ADDED, interval, teamId, 0, points + _later.points, _later.total);
+    }
+    if (isTennisCall() && _later.isTennisCall()
+        && Math.min(teamId, otherTeamId) == Math.min(_later.teamId, _later.otherTeamId)
+        && Math.max(teamId, otherTeamId) == Math.max(_later.teamId, _later.otherTeamId)) {
+      return _later;
+    }
+    return null;
+  }
+
+  /**
+   * Return flag to identify if this event can be coalesced at all (anything else is a
+   * barrier nothing is coalesced across)
+   */
+  boolean isCoalescable() {
+    return (type == Type.SCORE_ADDED || isTennisCall());
+  }
+
+  private boolean isTennisCall() {
+    return (type == Type.DEUCE || type == Type.ADVANTAGE);
+  }
+
+  public String toString() {
+    return type + " interval=" + interval + " team=" + teamId + (otherTeamId != 0 ? " other=" + otherTeamId : "")
+           + (type == Type.SCORE_ADDED ? " points=" + points + " total=" + total : "");
+  }
+}
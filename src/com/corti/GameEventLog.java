@@ -0,0 +1,376 @@
+package com.corti;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is an append only log of everything that happens to the games we're scoring
+ * (game created, points scored, interval advanced and game quit), if the jvm dies we can
+ * rebuild every game by replaying the log.  Since the log has the events and not the
+ * scores it also gives us a record of how the game was scored.
+ * <p>
+ * Each event is a fixed size binary record written into a memory mapped file:
+ * <pre>
+ *   int  gameId
+ *   byte event     (EVENT_xxx below, 0 means we're past the end of the log)
+ *   byte unused
+ *   short team     (team for EVENT_SCORE, sport code for EVENT_CREATE, hole for EVENT_COURSE;
+ *                   read unsigned)
+ *   int  value     (points for EVENT_SCORE, number of teams for EVENT_CREATE, interval in
+ *                   the high 15 bits and points in the low 17 for EVENT_INTERVAL_SCORE,
+ *                   depth for EVENT_UNDO_DEPTH, rounds in the high 16 bits then holes per
+ *                   round and par a byte each for EVENT_COURSE)
+ * </pre>
+ * The file is mapped a chunk at a time and forced to disk every 'syncEvery' events (and
+ * when we move to a new chunk or close) so we don't pay for an fsync on every point.
+ * <p>
+ * When a GameReplicator is set every record is also streamed to a standby process (see
+ * GameStandby), starting with the records already in the log.
+ */
+public class GameEventLog implements AutoCloseable {
+  public static final byte EVENT_CREATE = 1;
+  public static final byte EVENT_SCORE = 2;
+  public static final byte EVENT_ADVANCE = 3;
+  public static final byte EVENT_QUIT = 4;
+  public static final byte EVENT_UNDO = 5;      // Undo the game's last operation (see SportsGame.undo)
+  public static final byte EVENT_INTERVAL_SCORE = 6;  // Points for a team in an earlier interval (see SportsGame.setIntervalScore)
+  public static final byte EVENT_UNDO_DEPTH = 7;      // Undo depth changed (see SportsGame.setUndoDepth)
+  public static final byte EVENT_COURSE = 8;          // Par for a hole of a golf game's course (see logCreate)
+
+  public static final byte SPORT_FOOTBALL = 1;
+  public static final byte SPORT_TENNIS = 2;
+  public static final byte SPORT_GOLF = 3;
+  public static final byte SPORT_RULES = 16;    // Rule based sports are this + the order they were registered
+
+  static final int RECORD_SIZE = 12;
+  private static final int CHUNK_SIZE = RECORD_SIZE * 349525;  // ~4MB, records never straddle chunks
+
+  private final FileChannel channel;
+  private final int syncEvery;
+  private MappedByteBuffer chunk;     // Chunk we're currently appending to
+  private long chunkStart;            // File offset of chunk
+  private long endOfLog;              // File offset of the next record to write
+  private int unsynced;               // Events written since the last force
+  private volatile GameReplicator replicator;  // Records are streamed to a standby through it when set
+
+  /**
+   * Open (or create) the log, we position ourselves after the last event in it so new
+   * events are appended.
+   *
+   * @param _file The log file
+   * @param _syncEvery Number of events to batch before forcing them to disk
+   * @throws IOException if we can't open or map the file
+   */
+  public GameEventLog(Path _file, int _syncEvery) throws IOException {
+    channel = FileChannel.open(_file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    syncEvery = Math.max(_syncEvery, 1);
+    endOfLog = findEndOfLog();
+    mapChunk(endOfLog - (endOfLog % CHUNK_SIZE));
+  }
+
+  /**
+   * Return the sport code used in the log for the game passed in
+   *
+   * @param _theGame The game
+   * @return byte sport code
+   */
+  public static byte sportCode(SportsGame _theGame) {
+    if (_theGame instanceof Tennis) return SPORT_TENNIS;
+    if (_theGame instanceof Golf) return SPORT_GOLF;
+    if (_theGame instanceof RuleBasedGame) return GameRegistry.rulesCode(((RuleBasedGame) _theGame).getRules());
+    return SPORT_FOOTBALL;
+  }
+
+  /**
+   * Return the sport name for a sport code (the name GameRegistry.createGame expects)
+   *
+   * @param _sportCode Code from the log
+   * @return String sport name
+   */
+  public static String sportName(int _sportCode) {
+    switch (_sportCode) {
+      case SPORT_TENNIS:
+        return "tennis";
+      case SPORT_GOLF:
+        return "golf";
+      default:
+        if (_sportCode >= SPORT_RULES) {
+          // Only the same if the rules are registered in the same order (see GameRegistry.loadRules)
+          RuleSet rules = GameRegistry.getRules(_sportCode);
+          return (rules == null ? "" : rules.getName());
+        }
+        return "football";
+    }
+  }
+
+  /**
+   * Log that a game was created; golf that isn't one round on the standard course is
+   * followed by an EVENT_COURSE record for each hole (replay creates standard golf and then
+   * rebuilds it with the course as they come in)
+   *
+   * @return long replication sequence to pass to awaitReplication (0 when there's nothing to wait for)
+   */
+  public long logCreate(int _gameId, SportsGame _theGame) {
+    long logged = write(_gameId, EVENT_CREATE, sportCode(_theGame), _theGame.getNumberOfTeams());
+    if (_theGame instanceof Golf) {
+      Golf golf = (Golf) _theGame;
+      if (golf.getRounds() != 1 || golf.isStandardCourse() == false) {
+        if (golf.hasValidCourse() == false) {
+          throw new IllegalArgumentException("Golf course doesn't fit in a log record");
+        }
+        int course = (golf.getRounds() << 16) | (golf.getHolesPerRound() << 8);
+        for (int hole = 1; hole <= golf.getHolesPerRound(); hole++) {
+          logged = write(_gameId, EVENT_COURSE, hole, course | golf.getPar(hole));
+        }
+      }
+    }
+    return logged;
+  }
+
+  /**
+   * Log points scored by a team
+   *
+   * @return long replication sequence (see logCreate)
+   */
+  public long logScore(int _gameId, int _teamId, int _points) {
+    return write(_gameId, EVENT_SCORE, _teamId, _points);
+  }
+
+  /**
+   * Log points a late score made to a team's score for an interval (the interval has to fit
+   * in 15 bits and the points in 17, see SportsGame.setIntervalScore).  It's the points and
+   * not the score so late scores landing together replay the same in any order.
+   *
+   * @return long replication sequence (see logCreate)
+   */
+  public long logIntervalScore(int _gameId, int _teamId, int _interval, int _points) {
+    return write(_gameId, EVENT_INTERVAL_SCORE, _teamId, (_interval << 17) | (_points & 0x1ffff));
+  }
+
+  /**
+   * Log that the interval advanced (or the game ended because of it)
+   *
+   * @return long replication sequence (see logCreate)
+   */
+  public long logAdvance(int _gameId) {
+    return write(_gameId, EVENT_ADVANCE, 0, 0);
+  }
+
+  /**
+   * Log that the game was quit
+   *
+   * @return long replication sequence (see logCreate)
+   */
+  public long logQuit(int _gameId) {
+    return write(_gameId, EVENT_QUIT, 0, 0);
+  }
+
+  /**
+   * Log that the game's last operation was undone
+   *
+   * @return long replication sequence (see logCreate)
+   */
+  public long logUndo(int _gameId) {
+    return write(_gameId, EVENT_UNDO, 0, 0);
+  }
+
+  /**
+   * Log that the game's undo depth was changed
+   *
+   * @return long replication sequence (see logCreate)
+   */
+  public long logUndoDepth(int _gameId, int _depth) {
+    return write(_gameId, EVENT_UNDO_DEPTH, 0, _depth);
+  }
+
+  /**
+   * With synchronous replication wait for the standby to have the event the sequence
+   * passed in came from (a log method returned it).  Logging doesn't wait itself since
+   * games log while holding their scoring lock, they call this once they've let go of it
+   * so a slow standby doesn't hold up everyone scoring the game.
+   *
+   * @param _sequence Replication sequence (0 returns right away)
+   */
+  public void awaitReplication(long _sequence) {
+    GameReplicator current = replicator;
+    if (_sequence > 0 && current != null) current.awaitAck(_sequence);
+  }
+
+  /**
+   * Write one event to the log and wait for the standby to have it (see awaitReplication)
+   */
+  void append(int _gameId, byte _event, int _team, int _value) {
+    awaitReplication(write(_gameId, _event, _team, _value));
+  }
+
+  /**
+   * Write one event to the log, forcing the batch to disk when it's big enough
+   *
+   * @return long replication sequence of the event (0 when it isn't being replicated)
+   */
+  private synchronized long write(int _gameId, byte _event, int _team, int _value) {
+    if (_team < 0 || _team > 0xffff) throw new IllegalArgumentException("Team " + _team + " doesn't fit in a log record");
+    try {
+      if (endOfLog - chunkStart >= CHUNK_SIZE) {
+        chunk.force();
+        mapChunk(endOfLog);
+      }
+      int pos = (int) (endOfLog - chunkStart);
+      chunk.putInt(pos, _gameId);
+      chunk.put(pos + 4, _event);
+      chunk.putShort(pos + 6, (short) _team);
+      chunk.putInt(pos + 8, _value);
+      endOfLog += RECORD_SIZE;
+      if (++unsynced >= syncEvery) {
+        sync();
+      }
+      return (replicator == null ? 0 : replicator.enqueue(_gameId, _event, _team, _value));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Force any events we've written to disk
+   */
+  public synchronized void sync() {
+    chunk.force();
+    unsynced = 0;
+  }
+
+  /**
+   * Force what we have to disk and close the log
+   *
+   * @throws IOException if the close fails
+   */
+  public synchronized void close() throws IOException {
+    sync();
+    channel.close();
+  }
+
+  /**
+   * Rebuild the games in the log into the registry passed in (games keep the id they had
+   * when they were logged), once replayed the games are attached to this log so any new
+   * events are appended.  Call this before any new games are added to the registry.
+   *
+   * @param _registry Registry to put the games in
+   * @return int number of events replayed
+   * @throws IOException if we can't read the log
+   */
+  public int replay(GameRegistry _registry) throws IOException {
+    int events = readRecords(endOfLog, (gameId, event, team, value) -> applyEvent(_registry, gameId, event, team, value));
+    _registry.setEventLog(this);
+    return events;
+  }
+
+  /**
+   * Start (or with null stop) streaming our records to a standby, the records already in
+   * the log are queued first.  Done while holding our lock so no new record can get in
+   * ahead of them.
+   *
+   * @param _replicator The replicator (null to stop)
+   * @throws IOException if we can't read the log
+   */
+  synchronized void setReplicator(GameReplicator _replicator) throws IOException {
+    replicator = null;
+    if (_replicator != null) {
+      readRecords(endOfLog, _replicator::enqueue);
+      replicator = _replicator;
+    }
+  }
+
+  /**
+   * Something that's handed each record read from the log
+   */
+  interface RecordHandler {
+    void record(int _gameId, byte _event, int _team, int _value);
+  }
+
+  /**
+   * Read the records from the start of the log up to _end, in order
+   *
+   * @return int number of records read
+   */
+  private int readRecords(long _end, RecordHandler _handler) throws IOException {
+    int records = 0;
+    for (long start = 0; start < _end; start += CHUNK_SIZE) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, _end - start));
+      while (buffer.remaining() >= RECORD_SIZE) {
+        int pos = buffer.position();
+        _handler.record(buffer.getInt(pos), buffer.get(pos + 4), buffer.getShort(pos + 6) & 0xffff, buffer.getInt(pos + 8));
+        buffer.position(pos + RECORD_SIZE);
+        records++;
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Apply one event from the log to the game it belongs to (the standby applies the
+   * records it's sent with this too)
+   */
+  static void applyEvent(GameRegistry _registry, int _gameId, byte _event, int _team, int _value) {
+    if (_event == EVENT_CREATE) {
+      SportsGame theGame = GameRegistry.createGame(sportName(_team), _value);
+      if (theGame != null) _registry.restoreGame(_gameId, theGame);
+      return;
+    }
+    SportsGame theGame = _registry.getGame(_gameId);
+    if (theGame == null) return;
+    switch (_event) {
+      case EVENT_SCORE:
+        theGame.addScore(_team, _value);
+        break;
+      case EVENT_ADVANCE:
+        theGame.advanceInterval();
+        break;
+      case EVENT_QUIT:
+        theGame.quitGame();
+        break;
+      case EVENT_UNDO:
+        theGame.undo();
+        break;
+      case EVENT_INTERVAL_SCORE:
+        theGame.addIntervalScore(_team, _value >>> 17, (_value << 15) >> 15);
+        break;
+      case EVENT_UNDO_DEPTH:
+        theGame.setUndoDepth(_value);
+        break;
+      case EVENT_COURSE:
+        int holes = (_value >>> 8) & 0xff;
+        if (theGame instanceof Golf && _team >= 1 && _team <= holes) {
+          _registry.restoreGame(_gameId, ((Golf) theGame).withPar(_value >>> 16, holes, _team, _value & 0xff));
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Find where the log ends, that's the first record with no event (the file is zero
+   * filled past the last record we wrote)
+   */
+  private long findEndOfLog() throws IOException {
+    long size = channel.size();
+    for (long start = 0; start < size; start += CHUNK_SIZE) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, size - start));
+      for (int pos = 0; pos + RECORD_SIZE <= buffer.limit(); pos += RECORD_SIZE) {
+        if (buffer.get(pos + 4) == 0) return start + pos;
+      }
+    }
+    return size - (size % RECORD_SIZE);
+  }
+
+  /**
+   * Map the chunk of the file starting at the offset passed in (the file grows as needed)
+   */
+  private void mapChunk(long _chunkStart) throws IOException {
+    chunkStart = _chunkStart;
+    chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, CHUNK_SIZE);
+  }
+}
@@ -0,0 +1,223 @@
+package com.corti;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class pushes a game's events (GameEvent) to any number of subscribers (i.e. the
+ * displays around a venue) so they don't have to poll the game.  It's a standard
+ * Flow.Publisher so subscribers ask for events with request(n) and only get what they
+ * asked for.
+ * <p>
+ * The scoring thread never waits on a subscriber: publishing just puts the event on each
+ * subscription's queue and events are delivered on the subscription's executor.  A
+ * subscriber that's slow (or hasn't requested anything) doesn't make its queue grow with
+ * every point, score events still waiting are coalesced (see GameEvent) so the queue is
+ * at most a score per team (and a call per tennis game) for each interval.
+ * <p>
+ * After GAME_OVER is delivered the subscriber is completed (if the game over is undone
+ * afterwards they have to subscribe again to see the game carry on).
+ */
+public class GameEventPublisher implements Flow.Publisher<GameEvent> {
+  private final SportsGame theGame;
+  private final CopyOnWriteArrayList<GameSubscription> subscriptions = new CopyOnWriteArrayList<>();
+  private volatile GameEvent lastEvent;   // Set once the game is over, given to late subscribers
+
+  GameEventPublisher(SportsGame _theGame) {
+    theGame = _theGame;
+  }
+
+  /**
+   * Subscribe, events are delivered on the common fork join pool
+   */
+  public void subscribe(Flow.Subscriber<? super GameEvent> _subscriber) {
+    subscribe(_subscriber, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Subscribe with events delivered on the executor passed in (a subscriber is never
+   * called by more than one thread at a time)
+   *
+   * @param _subscriber The subscriber
+   * @param _executor Executor to deliver events on
+   */
+  public void subscribe(Flow.Subscriber<? super GameEvent> _subscriber, Executor _executor) {
+    GameSubscription subscription = new GameSubscription(_subscriber, _executor);
+    subscriptions.add(subscription);
+    _subscriber.onSubscribe(subscription);
+    // A game that's already over won't publish again, so send its last event now
+    GameEvent over = lastEvent;
+    if (over == null && theGame.isGameOver()) {
+      over = new GameEvent(GameEvent.Type.GAME_OVER, theGame.getCurrentInterval(), 0, 0, 0, 0);
+    }
+    if (over != null) subscription.offer(over);
+  }
+
+  /**
+   * Return flag to identify if anyone is subscribed, the game checks this so it doesn't
+   * create events nobody will see
+   */
+  boolean hasSubscribers() {
+    return (subscriptions.isEmpty() == false);
+  }
+
+  /**
+   * Return the number of subscribers
+   */
+  public int getSubscriberCount() {
+    return subscriptions.size();
+  }
+
+  /**
+   * Give the event to every subscriber
+   */
+  void publish(GameEvent _event) {
+    if (_event.getType() == GameEvent.Type.GAME_OVER) lastEvent = _event;
+    else if (_event.getType() == GameEvent.Type.CORRECTED) lastEvent = null;  // Game over may have been undone
+    for (GameSubscription subscription : subscriptions) {
+      subscription.offer(_event);
+    }
+  }
+
+  /**
+   * One subscriber's queue and demand.  The queue is a ring of events, the scoring
+   * threads add to it and a drain running on the executor delivers from it.
+   */
+  private final class GameSubscription implements Flow.Subscription, Runnable {
+    private final Flow.Subscriber<? super GameEvent> subscriber;
+    private final Executor executor;
+    private final AtomicInteger drainRequests = new AtomicInteger();  // Non zero while a drain is scheduled/running
+
+    // Guarded by this
+    private GameEvent[] queue = new GameEvent[16];
+    private int head;
+    private int size;
+    private long requested;
+    private boolean cancelled;
+    private Throwable badRequest;
+
+    GameSubscription(Flow.Subscriber<? super GameEvent> _subscriber, Executor _executor) {
+      subscriber = _subscriber;
+      executor = _executor;
+    }
+
+    /**
+     * Queue an event, coalescing it with a score event that's still waiting if we can
+     */
+    void offer(GameEvent _event) {
+      synchronized (this) {
+        if (cancelled) return;
+        if (_event.isCoalescable() && coalesce(_event)) {
+          // Merged into an event already queued
+        } else {
+          if (size == queue.length) growQueue();
+          queue[(head + size) & (queue.length - 1)] = _event;
+          size++;
+        }
+      }
+      scheduleDrain();
+    }
+
+    /**
+     * Look back through the coalescable events at the end of the queue (we can't look past
+     * an advance etc.. or we'd change the order that matters) for one to merge with
+     */
+    private boolean coalesce(GameEvent _event) {
+      for (int i = size - 1; i >= 0; i--) {
+        int pos = (head + i) & (queue.length - 1);
+        GameEvent queued = queue[pos];
+        if (queued.isCoalescable() == false) return false;
+        GameEvent merged = queued.coalesce(_event);
+        if (merged != null) {
+          queue[pos] = merged;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void growQueue() {
+      GameEvent[] newQueue = new GameEvent[queue.length * 2];
+      for (int i = 0; i < size; i++) {
+        newQueue[i] = queue[(head + i) & (queue.length - 1)];
+      }
+      queue = newQueue;
+      head = 0;
+    }
+
+    public void request(long _count) {
+      synchronized (this) {
+        if (cancelled) return;
+        if (_count <= 0) {
+          badRequest = new IllegalArgumentException("request must be positive (was " + _count + ")");
+        } else {
+          requested = (requested + _count < 0 ? Long.MAX_VALUE : requested + _count);
+        }
+      }
+      scheduleDrain();
+    }
+
+    public void cancel() {
+      synchronized (this) {
+        cancelled = true;
+        queue = new GameEvent[1];
+        size = 0;
+      }
+      subscriptions.remove(this);
+    }
+
+    private void scheduleDrain() {
+      if (drainRequests.getAndIncrement() == 0) {
+        executor.execute(this);
+      }
+    }
+
+    /**
+     * Deliver what's been requested, the subscriber is called outside our lock so
+     * scorers can keep adding events while it works
+     */
+    public void run() {
+      int missed = 1;
+      do {
+        while (true) {
+          GameEvent event;
+          Throwable error;
+          synchronized (this) {
+            if (cancelled) return;
+            error = badRequest;
+            event = null;
+            if (error == null && requested > 0 && size > 0) {
+              event = queue[head];
+              queue[head] = null;
+              head = (head + 1) & (queue.length - 1);
+              size--;
+              if (requested != Long.MAX_VALUE) requested--;
+            }
+          }
+          if (error != null) {
+            cancel();
+            subscriber.onError(error);
+            return;
+          }
+          if (event == null) break;
+          try {
+            subscriber.onNext(event);
+          } catch (Throwable t) {
+            cancel();
+            subscriber.onError(t);
+            return;
+          }
+          if (event.getType() == GameEvent.Type.GAME_OVER) {
+            cancel();
+            subscriber.onComplete();
+            return;
+          }
+        }
+        missed = drainRequests.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.corti;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class counts what the scorer is doing (points scored, requests rejected, intervals
+ * advanced, overtimes, games over) and how long scoreboards take to render, so we can see
+ * how it behaves under load.  There's one set of metrics for the process (GameMetrics.METRICS).
+ * <p>
+ * Metrics are off until enabled; when off the only cost in the scoring code is reading the
+ * 'enabled' flag.  Counters are LongAdders so scorers on different threads don't fight over
+ * them.  The figures can be read through JMX (com.corti:type=GameMetrics) or dumped as text
+ * every so often.  Main turns them on with -Dscoreboard.metrics=true and dumps them every
+ * N seconds with -Dscoreboard.metrics.dump=N.
+ */
+public class GameMetrics implements GameMetricsMBean {
+  public static final GameMetrics METRICS = new GameMetrics();
+
+  // Checked by the scoring code before touching any metric
+  static volatile boolean enabled;
+
+  final LongAdder addScoreCalls = new LongAdder();
+  final LongAdder batchRecords = new LongAdder();
+  final LongAdder requests = new LongAdder();
+  final LongAdder rejectedRequests = new LongAdder();
+  final LongAdder intervalAdvances = new LongAdder();
+  final LongAdder overtimeEntries = new LongAdder();
+  final LongAdder gamesOver = new LongAdder();
+  final LongAdder tennisGamesWon = new LongAdder();
+  final LatencyHistogram renderLatency = new LatencyHistogram();
+
+  private ScheduledExecutorService dumper;
+
+  private GameMetrics() {
+  }
+
+  /**
+   * Turn metrics on (and register them with JMX, dump them) based on the system
+   * properties scoreboard.metrics and scoreboard.metrics.dump
+   */
+  public static void configureFromSystemProperties() {
+    if (Boolean.getBoolean("scoreboard.metrics")) {
+      METRICS.setEnabled(true);
+      METRICS.registerMBean();
+      long dumpSeconds = Long.getLong("scoreboard.metrics.dump", 0L);
+      if (dumpSeconds > 0) METRICS.startDump(System.out, dumpSeconds);
+    }
+  }
+
+  /**
+   * Register with the platform mbean server as com.corti:type=GameMetrics
+   */
+  public void registerMBean() {
+    try {
+      ObjectName name = new ObjectName("com.corti:type=GameMetrics");
+      if (ManagementFactory.getPlatformMBeanServer().isRegistered(name) == false) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      }
+    } catch (JMException e) {
+      System.out.println("Unable to register metrics with JMX: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Write the metrics to the stream every so often (on a daemon thread)
+   *
+   * @param _out Where to write them
+   * @param _periodSeconds How often
+   */
+  public synchronized void startDump(PrintStream _out, long _periodSeconds) {
+    stopDump();
+    dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "GameMetrics-dump");
+      thread.setDaemon(true);
+      return thread;
+    });
+    dumper.scheduleAtFixedRate(() -> _out.print(dump()), _periodSeconds, _periodSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the periodic dump
+   */
+  public synchronized void stopDump() {
+    if (dumper != null) {
+      dumper.shutdownNow();
+      dumper = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean _enabled) {
+    enabled = _enabled;
+  }
+
+  public long getAddScoreCalls() {
+    return addScoreCalls.sum();
+  }
+
+  public long getBatchRecords() {
+    return batchRecords.sum();
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getRejectedRequests() {
+    return rejectedRequests.sum();
+  }
+
+  public long getIntervalAdvances() {
+    return intervalAdvances.sum();
+  }
+
+  public long getOvertimeEntries() {
+    return overtimeEntries.sum();
+  }
+
+  public long getGamesOver() {
+    return gamesOver.sum();
+  }
+
+  public long getTennisGamesWon() {
+    return tennisGamesWon.sum();
+  }
+
+  public long getRenders() {
+    return renderLatency.getCount();
+  }
+
+  public double getRenderMeanNanos() {
+    return renderLatency.getMean();
+  }
+
+  public long getRender99thPercentileNanos() {
+    return renderLatency.getPercentile(99.0);
+  }
+
+  public long getRenderMaxNanos() {
+    return renderLatency.getMax();
+  }
+
+  /**
+   * Return the metrics as text, one per line
+   *
+   * @return String metrics
+   */
+  public String dump() {
+    StringBuilder text = new StringBuilder();
+    text.append(String.format("%n%-22s%d%n", "addScore calls", getAddScoreCalls()));
+    text.append(String.format("%-22s%d%n", "Batch records", getBatchRecords()));
+    text.append(String.format("%-22s%d%n", "Requests", getRequests()));
+    text.append(String.format("%-22s%d%n", "Rejected requests", getRejectedRequests()));
+    text.append(String.format("%-22s%d%n", "Interval advances", getIntervalAdvances()));
+    text.append(String.format("%-22s%d%n", "Overtimes", getOvertimeEntries()));
+    text.append(String.format("%-22s%d%n", "Games over", getGamesOver()));
+    text.append(String.format("%-22s%d%n", "Tennis games won", getTennisGamesWon()));
+    text.append(String.format("%-22s%d (mean %.0f ns, p50 %d ns, p99 %d ns, p99.9 %d ns, max %d ns)%n",
+                              "Renders", getRenders(), renderLatency.getMean(), renderLatency.getPercentile(50),
+                              renderLatency.getPercentile(99), renderLatency.getPercentile(99.9),
+                              renderLatency.getMax()));
+    return text.toString();
+  }
+
+  /**
+   * Clear all the metrics
+   */
+  public void reset() {
+    addScoreCalls.reset();
+    batchRecords.reset();
+    requests.reset();
+    rejectedRequests.reset();
+    intervalAdvances.reset();
+    overtimeEntries.reset();
+    gamesOver.reset();
+    tennisGamesWon.reset();
+    renderLatency.reset();
+  }
+}
@@ -0,0 +1,39 @@
+package com.corti;
+
+/**
+ * JMX view of GameMetrics (registered as com.corti:type=GameMetrics), see GameMetrics
+ * for what each figure means.
+ */
+public interface GameMetricsMBean {
+  boolean isEnabled();
+
+  void setEnabled(boolean _enabled);
+
+  long getAddScoreCalls();
+
+  long getBatchRecords();
+
+  long getRequests();
+
+  long getRejectedRequests();
+
+  long getIntervalAdvances();
+
+  long getOvertimeEntries();
+
+  long getGamesOver();
+
+  long getTennisGamesWon();
+
+  long getRenders();
+
+  double getRenderMeanNanos();
+
+  long getRender99thPercentileNanos();
+
+  long getRenderMaxNanos();
+
+  String dump();
+
+  void reset();
+}
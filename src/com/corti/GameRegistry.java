@@ -0,0 +1,266 @@
+package com.corti;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds all the games that are being scored by one process (i.e. a whole
+ * tournament day), each game gets an id when it's created and is looked up by that id.
+ * Games created here have concurrent scoring turned on since more than one session can
+ * be scoring the same game.
+ * <p>
+ * It also knows how to create a game (and the ui to score it) from the sport name so the
+ * same rules Main uses for the console are used everywhere else.  Sports described by a
+ * rules file (see RuleSet) are registered here too and then created by name like the
+ * built in ones.
+ */
+public class GameRegistry {
+  private final Map<Integer, SportsGame> games = new ConcurrentHashMap<>();
+  private final AtomicInteger nextGameId = new AtomicInteger(1);
+  private GameEventLog eventLog;          // When set every game's events are logged to it
+  private GameArchive archive;            // When set finished games are archived as they're removed
+
+  // Rule based sports by lower case name, and in the order they were registered (for their sport code)
+  private static final Map<String, RuleSet> RULES = new ConcurrentHashMap<>();
+  private static final List<RuleSet> RULES_ORDER = new CopyOnWriteArrayList<>();
+
+  /**
+   * Create a game for the sport passed in, returns null if the sport or number of
+   * players isn't valid.  The game isn't registered, use addGame for that.  Golf can be
+   * given the rounds and the course as 'golf/&lt;rounds&gt;' or 'golf/&lt;rounds&gt;/&lt;par,par,...&gt;'
+   * (i.e. golf/4 for four rounds on the standard par 72 course).
+   *
+   * @param _sport Name of the sport (football, tennis, golf or a registered rule based sport), case doesn't matter
+   * @param _numberOfPlayers Number of players (ignored for football)
+   * @return SportsGame or null if we can't create it
+   */
+  public static SportsGame createGame(String _sport, int _numberOfPlayers) {
+    SportsGame theGame = null;
+    switch (_sport.toLowerCase()) {
+      case "football":
+        theGame = new Football();
+        break;
+      case "tennis":
+        if (_numberOfPlayers >= 2 && _numberOfPlayers % 2 == 0) theGame = new Tennis(_numberOfPlayers);
+        break;
+      case "golf":
+        if (_numberOfPlayers >= 1) theGame = new Golf(_numberOfPlayers);
+        break;
+      default:
+        if (_sport.toLowerCase().startsWith("golf/")) {
+          if (_numberOfPlayers >= 1) theGame = createGolf(_sport.substring(5), _numberOfPlayers);
+          break;
+        }
+        RuleSet rules = RULES.get(_sport.toLowerCase());
+        if (rules != null && (rules.getTeams() > 0 || _numberOfPlayers >= 1)) {
+          theGame = new RuleBasedGame(rules, _numberOfPlayers);
+        }
+        break;
+    }
+    return theGame;
+  }
+
+  /**
+   * Create golf from the rounds and course in a sport name ('&lt;rounds&gt;[/&lt;par,par,...&gt;]',
+   * see createGame), returns null if they aren't valid
+   */
+  private static Golf createGolf(String _course, int _numberOfPlayers) {
+    String[] parts = _course.split("/");
+    if (parts.length > 2) return null;
+    try {
+      int rounds = Integer.parseInt(parts[0]);
+      int[] pars = null;
+      if (parts.length == 2) {
+        String[] holes = parts[1].split(",");
+        pars = new int[holes.length];
+        for (int hole = 0; hole < holes.length; hole++) pars[hole] = Integer.parseInt(holes[hole].trim());
+      }
+      if (Golf.isValidCourse(rounds, pars) == false) return null;
+      return (pars == null ? new Golf(_numberOfPlayers, rounds) : new Golf(_numberOfPlayers, rounds, pars));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Register a rule based sport so createGame can create it by name, registering a sport
+   * with the same name again replaces its rules
+   *
+   * @param _rules Rules for the sport
+   */
+  public static synchronized void registerRules(RuleSet _rules) {
+    RuleSet old = RULES.put(_rules.getName().toLowerCase(), _rules);
+    if (old != null) {
+      RULES_ORDER.set(RULES_ORDER.indexOf(old), _rules);
+    } else {
+      if (GameEventLog.SPORT_RULES + RULES_ORDER.size() > Byte.MAX_VALUE) {
+        throw new IllegalStateException("Too many rule based sports");
+      }
+      RULES_ORDER.add(_rules);
+    }
+  }
+
+  /**
+   * Register every '.rules' file in the directory (in name order so the sport codes are
+   * the same every time the same directory is loaded)
+   *
+   * @param _directory Directory of rules files
+   * @return int number of sports registered
+   * @throws IOException if a file can't be read
+   * @throws IllegalArgumentException if a file has bad rules
+   */
+  public static int loadRules(Path _directory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(_directory, "*.rules")) {
+      for (Path entry : entries) files.add(entry);
+    }
+    files.sort(null);
+    for (Path file : files) {
+      registerRules(RuleSet.load(file));
+    }
+    return files.size();
+  }
+
+  /**
+   * Return the rules for a sport code (see GameEventLog.SPORT_RULES), null if unknown
+   */
+  static RuleSet getRules(int _sportCode) {
+    int index = _sportCode - GameEventLog.SPORT_RULES;
+    return (index >= 0 && index < RULES_ORDER.size() ? RULES_ORDER.get(index) : null);
+  }
+
+  /**
+   * Return the sport code for rules that are registered
+   */
+  static byte rulesCode(RuleSet _rules) {
+    int index = RULES_ORDER.indexOf(_rules);
+    if (index < 0) throw new IllegalStateException(_rules.getName() + " isn't registered");
+    return (byte) (GameEventLog.SPORT_RULES + index);
+  }
+
+  /**
+   * Create the ui used to score the game passed in, this mirrors what Main does (tennis
+   * players are bumped by a point and auto increment, everything else enters points)
+   *
+   * @param _theGame The game to be scored
+   * @return SportGameUI to score it with
+   */
+  public static SportGameUI createUI(SportsGame _theGame) {
+    if (_theGame instanceof Tennis) {
+      return new NoPointsUI(_theGame, true);
+    }
+    if (_theGame instanceof RuleBasedGame) {
+      RuleSet rules = ((RuleBasedGame) _theGame).getRules();
+      if (rules.isSinglePointScoring()) return new NoPointsUI(_theGame, rules.isAutoAdvance());
+      return new EnterPointsUI(_theGame, rules.isAutoAdvance());
+    }
+    return new EnterPointsUI(_theGame, false);
+  }
+
+  /**
+   * Add a game to the registry and return the id assigned to it
+   *
+   * @param _theGame The game to host
+   * @return int gameId
+   */
+  public int addGame(SportsGame _theGame) {
+    _theGame.enableConcurrentScoring();
+    int gameId = nextGameId.getAndIncrement();
+    long logged = 0;
+    if (eventLog != null) {
+      logged = eventLog.logCreate(gameId, _theGame);
+      _theGame.attachEventLog(eventLog, gameId);
+    }
+    games.put(gameId, _theGame);
+    if (logged > 0) eventLog.awaitReplication(logged);
+    return gameId;
+  }
+
+  /**
+   * Put a game back in the registry with the id it had before (used when rebuilding
+   * games from a GameEventLog), new games will get ids after it.
+   *
+   * @param _gameId The id the game had
+   * @param _theGame The game
+   */
+  void restoreGame(int _gameId, SportsGame _theGame) {
+    _theGame.enableConcurrentScoring();
+    games.put(_gameId, _theGame);
+    nextGameId.accumulateAndGet(_gameId + 1, Math::max);
+  }
+
+  /**
+   * Log the events of every game to the log passed in; games already in the registry are
+   * assumed to be in the log (i.e. they were replayed from it) so only new games have
+   * their creation logged.
+   *
+   * @param _eventLog The log
+   */
+  public void setEventLog(GameEventLog _eventLog) {
+    eventLog = _eventLog;
+    for (Map.Entry<Integer, SportsGame> entry : games.entrySet()) {
+      entry.getValue().attachEventLog(eventLog, entry.getKey());
+    }
+  }
+
+  /**
+   * Archive finished games when they're removed from the registry (null to stop)
+   *
+   * @param _archive The archive
+   */
+  public void setArchive(GameArchive _archive) {
+    archive = _archive;
+  }
+
+  /**
+   * Create a game and add it to the registry
+   *
+   * @param _sport Name of the sport
+   * @param _numberOfPlayers Number of players
+   * @return int gameId or 0 if the game couldn't be created
+   */
+  public int newGame(String _sport, int _numberOfPlayers) {
+    SportsGame theGame = createGame(_sport, _numberOfPlayers);
+    return (theGame == null ? 0 : addGame(theGame));
+  }
+
+  /**
+   * Return the game for the id passed in
+   *
+   * @param _gameId The game id
+   * @return SportsGame or null if there is no game with that id
+   */
+  public SportsGame getGame(int _gameId) {
+    return games.get(_gameId);
+  }
+
+  /**
+   * Return all the games hosted (the map is live, don't modify it)
+   *
+   * @return Map of gameId to game
+   */
+  public Map<Integer, SportsGame> getGames() {
+    return games;
+  }
+
+  /**
+   * Remove a game from the registry (i.e. when it's over and no longer needed), if there's
+   * an archive and the game is over it's added to the archive
+   *
+   * @param _gameId The game id
+   * @return SportsGame that was removed or null
+   */
+  public SportsGame removeGame(int _gameId) {
+    SportsGame theGame = games.remove(_gameId);
+    if (theGame != null && archive != null && theGame.isGameOver()) archive.append(theGame);
+    return theGame;
+  }
+}
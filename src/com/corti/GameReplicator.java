@@ -0,0 +1,290 @@
+package com.corti;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * This class is the primary's side of hot standby replication: every record written to
+ * the primary's GameEventLog (games created, points, advances, quits, undos) is streamed
+ * to a standby process (see GameStandby) over a loopback socket, the standby applies them
+ * to its own games so it can take over if we go away.
+ * <p>
+ * Records are the event log's 12 byte records and go out in batches; whatever has been
+ * queued while the last batch was being written goes in the next one, so under load a
+ * batch is thousands of records and costs one write.  A frame is:
+ * <pre>
+ *   int  count     (number of records)
+ *   long first     (sequence number of the first record, they're numbered from 1)
+ *   byte records[count * 12]
+ * </pre>
+ * The standby sends back the sequence of the last record it has applied after each
+ * frame.  With synchronous replication (the default) the thread that scored waits for
+ * that ack before the score call returns (once it's let go of the game's lock), so nothing
+ * the primary acknowledged can be lost when it dies; scorers waiting together are all
+ * released by the same ack (like a group commit).  If the standby doesn't ack in time, or goes away, we carry on without it and
+ * keep trying to reconnect; when it's back it's sent the whole log again from the start.
+ */
+public class GameReplicator implements AutoCloseable {
+  static final int HELLO = 0x53425250;    // "SBRP", first thing sent on a connection
+  static final int VERSION = 3;            // 2: team is the short at offset 6, 3: late scores are points and golf courses are sent
+  static final int MAX_BATCH = 4096;      // Most records in one frame
+  private static final long RECONNECT_MILLIS = 1000;
+
+  private final int port;
+  private final boolean synchronous;
+  private final long ackTimeoutMillis;
+  private GameEventLog eventLog;
+  private volatile boolean closed;
+
+  // Guarded by this
+  private byte[] pending = new byte[GameEventLog.RECORD_SIZE * 1024];
+  private int pendingCount;               // Records in pending
+  private long nextSequence = 1;          // Sequence the next record queued gets
+  private long ackedSequence;             // Last sequence the standby has applied
+  private Socket socket;                  // Connection to the standby, null when we don't have one
+  private long batchesSent;
+  private long recordsSent;
+
+  /**
+   * Constructor
+   *
+   * @param _port Port the standby listens on (on the loopback address)
+   * @param _synchronous true to wait for the standby to have each record before a score returns
+   * @param _ackTimeoutMillis How long to wait for an ack before giving up on the standby
+   */
+  public GameReplicator(int _port, boolean _synchronous, long _ackTimeoutMillis) {
+    port = _port;
+    synchronous = _synchronous;
+    ackTimeoutMillis = Math.max(_ackTimeoutMillis, 1);
+  }
+
+  /**
+   * Start replicating the log, this returns right away; we connect (and reconnect) to the
+   * standby on a background thread
+   *
+   * @param _eventLog The primary's event log
+   */
+  public void start(GameEventLog _eventLog) {
+    eventLog = _eventLog;
+    Thread connector = new Thread(this::connectLoop, "GameReplicator");
+    connector.setDaemon(true);
+    connector.start();
+  }
+
+  /**
+   * Return indicator if the standby is connected (and so getting our records)
+   */
+  public synchronized boolean isConnected() {
+    return (socket != null);
+  }
+
+  /**
+   * Return the sequence of the last record the standby has applied
+   */
+  public synchronized long getAckedSequence() {
+    return ackedSequence;
+  }
+
+  /**
+   * Return the number of records queued (sequence of the last one queued)
+   */
+  public synchronized long getQueuedSequence() {
+    return nextSequence - 1;
+  }
+
+  /**
+   * Return the number of batches and records sent, as text
+   */
+  public synchronized String getStatistics() {
+    return String.format("%d records in %d batches (%.1f per batch), acked to %d", recordsSent, batchesSent,
+                         (batchesSent == 0 ? 0.0 : (double) recordsSent / batchesSent), ackedSequence);
+  }
+
+  /**
+   * Queue a record for the standby (called by the event log while it holds its lock, so
+   * records are queued in log order)
+   *
+   * @return long sequence of the record, 0 if there's no standby to send it to
+   */
+  synchronized long enqueue(int _gameId, byte _event, int _team, int _value) {
+    if (socket == null) return 0;
+    int pos = pendingCount * GameEventLog.RECORD_SIZE;
+    if (pos == pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+    pending[pos] = (byte) (_gameId >>> 24);
+    pending[pos + 1] = (byte) (_gameId >>> 16);
+    pending[pos + 2] = (byte) (_gameId >>> 8);
+    pending[pos + 3] = (byte) _gameId;
+    pending[pos + 4] = _event;
+    pending[pos + 6] = (byte) (_team >>> 8);
+    pending[pos + 7] = (byte) _team;
+    pending[pos + 8] = (byte) (_value >>> 24);
+    pending[pos + 9] = (byte) (_value >>> 16);
+    pending[pos + 10] = (byte) (_value >>> 8);
+    pending[pos + 11] = (byte) _value;
+    if (pendingCount++ == 0) notifyAll();
+    return nextSequence++;
+  }
+
+  /**
+   * Wait for the standby to ack the record (only with synchronous replication), if it
+   * doesn't in time we drop it rather than hold up scoring
+   */
+  void awaitAck(long _sequence) {
+    if (synchronous == false) return;
+    Socket timedOut = null;
+    synchronized (this) {
+      long deadline = System.nanoTime() + ackTimeoutMillis * 1000000;
+      while (ackedSequence < _sequence && socket != null && closed == false) {
+        long remaining = (deadline - System.nanoTime()) / 1000000;
+        if (remaining <= 0) {
+          timedOut = socket;
+          break;
+        }
+        try {
+          wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+    if (timedOut != null) {
+      System.err.println("Standby didn't ack in " + ackTimeoutMillis + " ms, carrying on without it");
+      disconnect(timedOut);
+    }
+  }
+
+  /**
+   * Connect to the standby and replicate to it until the connection goes, then try again
+   */
+  private void connectLoop() {
+    while (closed == false) {
+      try (Socket connection = new Socket(InetAddress.getLoopbackAddress(), port)) {
+        connection.setTcpNoDelay(true);
+        replicate(connection);
+      } catch (IOException e) {
+        // Standby isn't there (yet), or went away
+      }
+      try {
+        Thread.sleep(RECONNECT_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Send the whole log and then new records as they're queued until the connection fails
+   */
+  private void replicate(Socket _connection) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(_connection.getOutputStream(), 65536));
+    DataInputStream in = new DataInputStream(new BufferedInputStream(_connection.getInputStream()));
+    out.writeInt(HELLO);
+    out.writeInt(VERSION);
+    out.flush();
+    synchronized (this) {
+      pendingCount = 0;
+      nextSequence = 1;
+      ackedSequence = 0;
+      socket = _connection;
+    }
+    Thread ackReader = new Thread(() -> readAcks(_connection, in), "GameReplicator-acks");
+    ackReader.setDaemon(true);
+    ackReader.start();
+    try {
+      eventLog.setReplicator(this);
+      byte[] batch = new byte[pending.length];
+      while (true) {
+        int count;
+        long first;
+        synchronized (this) {
+          while (pendingCount == 0 && socket == _connection && closed == false) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+          if (socket != _connection || closed) return;
+          // Swap buffers so scorers queue into the other one while we write this one
+          byte[] full = pending;
+          pending = (batch.length >= full.length ? batch : new byte[full.length]);
+          batch = full;
+          count = pendingCount;
+          first = nextSequence - count;
+          pendingCount = 0;
+        }
+        for (int sent = 0; sent < count; sent += MAX_BATCH) {
+          int records = Math.min(MAX_BATCH, count - sent);
+          out.writeInt(records);
+          out.writeLong(first + sent);
+          out.write(batch, sent * GameEventLog.RECORD_SIZE, records * GameEventLog.RECORD_SIZE);
+          synchronized (this) {
+            batchesSent++;
+            recordsSent += records;
+          }
+        }
+        out.flush();
+      }
+    } finally {
+      eventLog.setReplicator(null);
+      disconnect(_connection);
+    }
+  }
+
+  /**
+   * Read acks from the standby and release whoever's waiting on them
+   */
+  private void readAcks(Socket _connection, DataInputStream _in) {
+    try {
+      while (true) {
+        long acked = _in.readLong();
+        synchronized (this) {
+          if (socket == _connection && acked > ackedSequence) {
+            ackedSequence = acked;
+            notifyAll();
+          }
+        }
+      }
+    } catch (IOException e) {
+      disconnect(_connection);
+    }
+  }
+
+  /**
+   * Drop the connection (if it's still the one we're using) and release anyone waiting
+   */
+  private void disconnect(Socket _connection) {
+    synchronized (this) {
+      if (socket == _connection) {
+        socket = null;
+        pendingCount = 0;
+      }
+      notifyAll();
+    }
+    try {
+      _connection.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+  }
+
+  /**
+   * Stop replicating
+   */
+  public void close() {
+    closed = true;
+    Socket connection;
+    synchronized (this) {
+      connection = socket;
+      notifyAll();
+    }
+    if (connection != null) disconnect(connection);
+  }
+}
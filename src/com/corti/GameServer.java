@@ -0,0 +1,224 @@
+package com.corti;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class lets one process score many games at once (i.e. a whole tournament day),
+ * the games live in a GameRegistry and are scored through sessions on a local socket
+ * instead of System.in.  Each connection is a session and runs on its own thread (a
+ * virtual thread when the jvm supports them) so we scale with cores and not the console.
+ * <p>
+ * A session is line based, these are handled here:
+ * <pre>
+ *   new football | new tennis 2 | new golf 3   create a game and start scoring it
+ *   new golf/4 156                             ...a 4 round tournament (see GameRegistry.createGame)
+ *   use 7                                      score game 7 (can be shared with other sessions)
+ *   list                                       show the games being hosted
+ *   finish 7                                   take game 7 off the server once it's over (it's
+ *                                              archived when the registry has a GameArchive)
+ *   bye                                        end the session
+ * </pre>
+ * anything else is passed to the SportGameUI for the game (h, q, +, s, team/points).
+ */
+public class GameServer {
+  private final GameRegistry registry;
+  private final int port;
+  private ServerSocket serverSocket;
+  private ExecutorService sessions;
+
+  /**
+   * Constructor, we get the registry holding the games and port to listen on
+   *
+   * @param _registry Games we're hosting
+   * @param _port Port to listen on (only bound to the loopback address), 0 picks a free one
+   */
+  public GameServer(GameRegistry _registry, int _port) {
+    registry = _registry;
+    port = _port;
+  }
+
+  /**
+   * Start listening, this returns right away; connections are accepted on a background thread.
+   *
+   * @throws IOException if we can't bind the port
+   */
+  public void start() throws IOException {
+    serverSocket = new ServerSocket(port, 200, InetAddress.getLoopbackAddress());
+    sessions = newSessionExecutor();
+    Thread acceptor = new Thread(this::acceptConnections, "GameServer-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Return the port we're listening on (handy when started with port 0)
+   *
+   * @return int port
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Stop accepting connections and end the sessions
+   */
+  public void stop() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+    sessions.shutdownNow();
+  }
+
+  /**
+   * Accept connections until the server socket is closed, each one is handed off to
+   * its own session
+   */
+  private void acceptConnections() {
+    while (serverSocket.isClosed() == false) {
+      try {
+        Socket socket = serverSocket.accept();
+        sessions.execute(() -> runSession(socket));
+      } catch (IOException e) {
+        if (serverSocket.isClosed() == false) e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Handle one connection, read requests until the client goes away or says bye
+   *
+   * @param _socket The client connection
+   */
+  private void runSession(Socket _socket) {
+    try (Socket socket = _socket;
+         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+         PrintStream out = new PrintStream(socket.getOutputStream(), true, "UTF-8")) {
+
+      int gameId = 0;
+      SportGameUI gameUI = null;
+      String request;
+      out.println("Scoreboard server, 'new <sport> [players]', 'use <gameId>', 'finish <gameId>', 'list' or 'bye'");
+      while ((request = in.readLine()) != null) {
+        String[] requestSplit = request.trim().split("\\s+");
+        String command = requestSplit[0].toLowerCase();
+        if (command.equals("bye")) {
+          break;
+        } else if (command.equals("list")) {
+          listGames(out);
+        } else if (command.equals("new") && requestSplit.length >= 2) {
+          int players = (requestSplit.length > 2 ? parseNumber(requestSplit[2]) : 2);
+          int newId = registry.newGame(requestSplit[1], players);
+          if (newId == 0) {
+            out.println("Can't create game: " + request.trim());
+          } else {
+            gameId = newId;
+            gameUI = attach(gameId, out);
+            out.println("game " + gameId);
+          }
+        } else if (command.equals("use") && requestSplit.length == 2) {
+          int useId = parseNumber(requestSplit[1]);
+          if (registry.getGame(useId) == null) {
+            out.println("No game " + requestSplit[1]);
+          } else {
+            gameId = useId;
+            gameUI = attach(gameId, out);
+            out.println("using game " + gameId);
+          }
+        } else if (command.equals("finish") && requestSplit.length == 2) {
+          int finishId = parseNumber(requestSplit[1]);
+          SportsGame theGame = registry.getGame(finishId);
+          if (theGame == null) {
+            out.println("No game " + requestSplit[1]);
+          } else if (theGame.isGameOver() == false) {
+            out.println("Game " + finishId + " isn't over");
+          } else if (registry.removeGame(finishId) == null) {
+            out.println("No game " + requestSplit[1]);     // Another session finished it first
+          } else {
+            out.println("finished game " + finishId);
+            if (finishId == gameId) {
+              gameId = 0;
+              gameUI = null;
+            }
+          }
+        } else if (gameUI == null) {
+          out.println("No game selected, use 'new' or 'use' first");
+        } else {
+          gameUI.processRequest(request);
+        }
+        if (gameUI != null) {
+          out.print("game " + gameId + " " + gameUI.getSport().getCurrentIntervalText() + ">");
+          out.flush();
+        }
+      }
+    } catch (IOException e) {
+      // Client went away, nothing else to do for this session
+    }
+  }
+
+  /**
+   * Create the ui to score a game from a session, the ui writes to the session's stream
+   *
+   * @param _gameId Game to score
+   * @param _out Session output
+   * @return SportGameUI for the game
+   */
+  private SportGameUI attach(int _gameId, PrintStream _out) {
+    SportGameUI gameUI = GameRegistry.createUI(registry.getGame(_gameId));
+    gameUI.setOutput(_out);
+    return gameUI;
+  }
+
+  /**
+   * Write one line per hosted game
+   *
+   * @param _out Where to write the list
+   */
+  private void listGames(PrintStream _out) {
+    for (Map.Entry<Integer, SportsGame> entry : registry.getGames().entrySet()) {
+      SportsGame theGame = entry.getValue();
+      _out.format("%5d %-10s %s%n", entry.getKey(), theGame.getSportName(), theGame.getCurrentIntervalText());
+    }
+  }
+
+  /**
+   * Parse a number, returns 0 if it's not valid
+   */
+  private static int parseNumber(String _value) {
+    try {
+      return Integer.parseInt(_value);
+    } catch (NumberFormatException ne) {
+      return 0;
+    }
+  }
+
+  /**
+   * Return an executor that runs each session on its own virtual thread, virtual threads
+   * only exist on newer jvms so we look for them reflectively and fall back to a cached
+   * pool of platform threads.
+   *
+   * @return ExecutorService for sessions
+   */
+  static ExecutorService newSessionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "GameServer-session");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package com.corti;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class is the standby's side of hot standby replication (see GameReplicator).  It
+ * listens on a loopback port for the primary, applies every record the primary sends to
+ * its own games (the same way the event log is replayed) and acks each batch once it's
+ * applied.  When the primary goes away and doesn't come back within a grace period (it
+ * reconnects on its own if it only dropped us, i.e. we were slow to ack) the standby takes
+ * over: awaitTakeover returns the registry holding every game as of the last record the
+ * primary sent, ready to be hosted.
+ * <p>
+ * Each time a primary connects it sends its whole log from the start, so the standby
+ * starts over with an empty registry.  When the standby is given a log file it writes
+ * the records it applies to it too (the file is started over with the registry), after a
+ * takeover the games log to it so the standby is as recoverable as the primary was.
+ * Only one primary is served at a time.  We're meant to run on the same box as the
+ * primary, where a loopback connection that drops and stays down means the primary
+ * process ended (there's no network to be cut off by).
+ */
+public class GameStandby implements AutoCloseable {
+  private static final int TAKEOVER_GRACE_MILLIS = 3000;   // More than the primary takes to reconnect
+
+  private final int port;
+  private final Path logFile;             // Our copy of the primary's log (can be null)
+  private ServerSocket serverSocket;
+
+  // Guarded by this
+  private GameRegistry registry = new GameRegistry();
+  private GameEventLog eventLog;
+  private long appliedSequence;           // Last record applied
+  private boolean takenOver;
+
+  /**
+   * Constructor
+   *
+   * @param _port Port to listen for the primary on (loopback only), 0 picks a free one
+   * @param _logFile Where to keep our copy of the log (null to keep the games in memory only)
+   */
+  public GameStandby(int _port, Path _logFile) {
+    port = _port;
+    logFile = _logFile;
+  }
+
+  /**
+   * Start listening for the primary, this returns right away
+   *
+   * @throws IOException if we can't bind the port
+   */
+  public void start() throws IOException {
+    serverSocket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(this::acceptPrimary, "GameStandby");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Return the port we're listening on
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Return the sequence of the last record applied
+   */
+  public synchronized long getAppliedSequence() {
+    return appliedSequence;
+  }
+
+  /**
+   * Return the registry the primary's games are being applied to (don't score them
+   * until we've taken over)
+   */
+  public synchronized GameRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Wait until a primary has connected and then gone away, then take over
+   *
+   * @return GameRegistry with the games, ready to host
+   * @throws InterruptedException if we're interrupted waiting
+   */
+  public GameRegistry awaitTakeover() throws InterruptedException {
+    synchronized (this) {
+      while (takenOver == false) wait();
+    }
+    return takeover();
+  }
+
+  /**
+   * Take over now: stop listening for a primary and return the games (attached to our
+   * log when we have one, so new events are logged)
+   *
+   * @return GameRegistry with the games
+   */
+  public synchronized GameRegistry takeover() {
+    takenOver = true;
+    notifyAll();
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // Closing anyway
+    }
+    if (eventLog != null) registry.setEventLog(eventLog);
+    return registry;
+  }
+
+  /**
+   * Serve one primary at a time until we take over
+   */
+  private void acceptPrimary() {
+    while (serverSocket.isClosed() == false) {
+      try (Socket primary = serverSocket.accept()) {
+        serverSocket.setSoTimeout(0);
+        primary.setTcpNoDelay(true);
+        if (follow(primary)) {
+          // The primary was streaming to us and went away, give it a chance to come back
+          serverSocket.setSoTimeout(TAKEOVER_GRACE_MILLIS);
+        }
+      } catch (SocketTimeoutException e) {
+        synchronized (this) {
+          // Primary didn't come back, we're it now
+          takenOver = true;
+          notifyAll();
+          return;
+        }
+      } catch (IOException e) {
+        // Listening socket closed (takeover) or the connection was bad, either way go round
+      }
+    }
+  }
+
+  /**
+   * Apply what the primary sends until it goes away
+   *
+   * @return boolean true if the primary said hello (it's one of ours) and then went away
+   */
+  private boolean follow(Socket _primary) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(_primary.getInputStream(), 65536));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(_primary.getOutputStream()));
+    if (in.readInt() != GameReplicator.HELLO || in.readInt() != GameReplicator.VERSION) return false;
+    startOver();
+    byte[] batch = new byte[GameReplicator.MAX_BATCH * GameEventLog.RECORD_SIZE];
+    try {
+      while (true) {
+        int count = in.readInt();
+        long first = in.readLong();
+        if (count < 0 || count > GameReplicator.MAX_BATCH) throw new IOException("Bad batch from primary");
+        in.readFully(batch, 0, count * GameEventLog.RECORD_SIZE);
+        long acked;
+        synchronized (this) {
+          if (first != appliedSequence + 1) throw new IOException("Primary skipped records");
+          for (int record = 0; record < count; record++) {
+            applyRecord(batch, record * GameEventLog.RECORD_SIZE);
+          }
+          appliedSequence += count;
+          acked = appliedSequence;
+        }
+        out.writeLong(acked);
+        out.flush();
+      }
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  /**
+   * A new primary connection sends everything from the start, so start from nothing
+   */
+  private synchronized void startOver() throws IOException {
+    registry = new GameRegistry();
+    appliedSequence = 0;
+    if (logFile != null) {
+      if (eventLog != null) eventLog.close();
+      Files.deleteIfExists(logFile);
+      eventLog = new GameEventLog(logFile, 4096);
+    }
+  }
+
+  /**
+   * Apply one record to our games and copy it to our log
+   */
+  private void applyRecord(byte[] _batch, int _pos) {
+    int gameId = ((_batch[_pos] & 0xff) << 24) | ((_batch[_pos + 1] & 0xff) << 16)
+                 | ((_batch[_pos + 2] & 0xff) << 8) | (_batch[_pos + 3] & 0xff);
+    int value = ((_batch[_pos + 8] & 0xff) << 24) | ((_batch[_pos + 9] & 0xff) << 16)
+                | ((_batch[_pos + 10] & 0xff) << 8) | (_batch[_pos + 11] & 0xff);
+    int team = ((_batch[_pos + 6] & 0xff) << 8) | (_batch[_pos + 7] & 0xff);
+    GameEventLog.applyEvent(registry, gameId, _batch[_pos + 4], team, value);
+    if (eventLog != null) eventLog.append(gameId, _batch[_pos + 4], team, value);
+  }
+
+  /**
+   * Stop following the primary (without taking over) and close our log
+   *
+   * @throws IOException if the log can't be closed
+   */
+  public synchronized void close() throws IOException {
+    takenOver = true;
+    notifyAll();
+    serverSocket.close();
+    if (eventLog != null) eventLog.close();
+  }
+}
@@ -0,0 +1,331 @@
+package com.corti;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the running statistics for a game that the broadcast overlays show:
+ * scoring runs, the largest lead, lead changes, points per interval and for tennis the
+ * deuces and break points.  The game calls it as each score and advance happens (see
+ * SportsGame.stats()) and each one is O(1), so asking for a figure is just reading a
+ * field; nothing goes back over the interval scores.
+ * <p>
+ * Memory is fixed per game, a handful of ints per team and one per interval (overtime
+ * intervals grow it).  What's counted:
+ * <pre>
+ *   run            points scored by one team with nobody else scoring (tennis: by one
+ *                  player of a pair without the other scoring)
+ *   lead           a team's total less the next best total, kept as the largest each team had
+ *                  (for sports where the lowest total wins, golf, it's how far below it is)
+ *   lead change    the lead goes to a different team than had it last (ties don't count)
+ *   deuce          a tennis game gets to deuce (every time, so 40-40 then A-40 then 40-40 is 2)
+ *   break point    a tennis player that isn't serving is a point away from winning the game,
+ *                  and a break is winning it; we don't know who serves so the first player
+ *                  of a pair is taken to serve the odd intervals (games)
+ * </pre>
+ * Corrections (undo) come through as negative points, the totals and interval points are
+ * put right but runs, leads and tennis counts are left as they happened; late scores for
+ * an interval that's over (golf) are treated the same way.  The methods are
+ * synchronized since concurrent scorers call in together, they're short so that's fine.
+ */
+public class GameStats {
+  private final int numberOfTeams;
+  private final boolean tennis;          // Runs are per pair and the tennis counts are kept
+  private final boolean lowWins;         // The lowest total leads (golf)
+  private final int[] totals;            // Team totals (0 offset)
+  private final int[] currentPoints;     // Team points in the current interval (0 offset)
+  private int[] intervalPoints;          // All teams' points by interval (1 offset)
+  private int interval = 1;
+
+  // Runs, per group of teams that play each other (the whole game, or each tennis pair)
+  private final int[] runTeam;           // Team on the run (0 none)
+  private final int[] runPoints;
+  private final int[] longestRun;        // Per team (0 offset)
+
+  // Leads, leader and runner up are team positions (0 offset, -1 when there aren't enough teams)
+  private int first = 0;
+  private int second = -1;
+  private int lastLeader;                // Team that had the lead last (0 never)
+  private int leadChanges;
+  private final int[] largestLead;       // Per team (0 offset)
+
+  // Tennis
+  private final int[] deuces;            // Per pair
+  private final int[] breakPoints;       // Per player (0 offset)
+  private final int[] breaks;            // Per player (0 offset)
+
+  /**
+   * Constructor
+   *
+   * @param _numberOfTeams Number of teams (players)
+   * @param _numberOfIntervals Number of regulation intervals
+   * @param _tennis true if the teams are tennis players in pairs
+   */
+  public GameStats(int _numberOfTeams, int _numberOfIntervals, boolean _tennis) {
+    this(_numberOfTeams, _numberOfIntervals, _tennis, false);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param _numberOfTeams Number of teams (players)
+   * @param _numberOfIntervals Number of regulation intervals
+   * @param _tennis true if the teams are tennis players in pairs
+   * @param _lowWins true if the lowest total leads (golf)
+   */
+  public GameStats(int _numberOfTeams, int _numberOfIntervals, boolean _tennis, boolean _lowWins) {
+    numberOfTeams = _numberOfTeams;
+    tennis = _tennis;
+    lowWins = _lowWins;
+    totals = new int[numberOfTeams];
+    currentPoints = new int[numberOfTeams];
+    intervalPoints = new int[Math.max(_numberOfIntervals, 1) + 1];
+    int groups = (tennis ? Math.max(numberOfTeams / 2, 1) : 1);
+    runTeam = new int[groups];
+    runPoints = new int[groups];
+    longestRun = new int[numberOfTeams];
+    largestLead = new int[numberOfTeams];
+    deuces = new int[groups];
+    breakPoints = new int[numberOfTeams];
+    breaks = new int[numberOfTeams];
+    if (numberOfTeams > 1) second = 1;
+  }
+
+  /**
+   * Start from where a game already is (stats asked for after it started), only the
+   * totals and interval points can be known
+   */
+  synchronized void seed(SportsGame _theGame) {
+    for (int i = 1; i <= _theGame.getCurrentInterval(); i++) {
+      if (i > 1) intervalChanged(i);
+      for (int teamId = 1; teamId <= numberOfTeams; teamId++) {
+        int score = _theGame.getScore(teamId, i);
+        totals[teamId - 1] += score;
+        intervalPoints[i] += score;
+        if (i == _theGame.getCurrentInterval()) currentPoints[teamId - 1] = score;
+      }
+    }
+    rankAll();
+    if (second >= 0 && ahead(first, second)) lastLeader = first + 1;
+  }
+
+  /**
+   * A team scored (or had points taken off when _points is negative)
+   */
+  synchronized void scored(int _teamId, int _interval, int _points) {
+    int team = _teamId - 1;
+    totals[team] += _points;
+    intervalPoints[_interval] += _points;
+    if (_interval != interval) {
+      rankAll();                      // A late score for an interval that's over, like a correction
+      return;
+    }
+    currentPoints[team] += _points;
+    if (_points <= 0) {
+      if (_points < 0) rankAll();     // A correction can drop anyone, look at everyone
+      return;
+    }
+
+    int group = runGroup(_teamId);
+    if (runTeam[group] == _teamId) {
+      runPoints[group] += _points;
+    } else {
+      runTeam[group] = _teamId;
+      runPoints[group] = _points;
+    }
+    if (runPoints[group] > longestRun[team]) longestRun[team] = runPoints[group];
+
+    rank(team);
+    leadChanged();
+    if (tennis) tennisPoint(team, _interval);
+  }
+
+  /**
+   * Return indicator if the first team's total is better than the second's
+   */
+  private boolean ahead(int _team, int _other) {
+    return (lowWins ? totals[_team] < totals[_other] : totals[_team] > totals[_other]);
+  }
+
+  /**
+   * Move the team that scored up the leader/runner up (points only go up here so it
+   * can only pass the teams ahead of it).  When the lowest total wins points only move a
+   * team back, which only matters if it was the leader or runner up.
+   */
+  private void rank(int _team) {
+    if (second < 0) return;
+    if (lowWins) {
+      if (_team == first || _team == second) rankAll();
+      return;
+    }
+    if (_team == first) return;
+    if (ahead(_team, first)) {
+      second = first;
+      first = _team;
+    } else if (_team != second && ahead(_team, second)) {
+      second = _team;
+    }
+  }
+
+  /**
+   * Work out the leader and runner up from scratch (after a correction, or a score that
+   * moves the leader back when the lowest total wins)
+   */
+  private void rankAll() {
+    if (second < 0) return;
+    first = (ahead(1, 0) ? 1 : 0);
+    second = 1 - first;
+    for (int team = 2; team < numberOfTeams; team++) {
+      if (ahead(team, first)) {
+        second = first;
+        first = team;
+      } else if (ahead(team, second)) {
+        second = team;
+      }
+    }
+  }
+
+  private void leadChanged() {
+    if (second < 0) return;
+    int lead = (lowWins ? totals[second] - totals[first] : totals[first] - totals[second]);
+    if (lead <= 0) return;
+    if (lead > largestLead[first]) largestLead[first] = lead;
+    if (lastLeader != first + 1) {
+      if (lastLeader != 0) leadChanges++;
+      lastLeader = first + 1;
+    }
+  }
+
+  /**
+   * Count deuces and break points for the tennis game a player just won a point in; a
+   * break point is counted after every point that leaves the returner a point from the
+   * game, whoever won it (0-40 to 15-40 is a second one)
+   */
+  private void tennisPoint(int _player, int _interval) {
+    int opponent = (_player % 2 == 0 ? _player + 1 : _player - 1);
+    if (opponent >= numberOfTeams) return;    // Odd player out
+    int points = currentPoints[_player];
+    if (points >= 3 && points == currentPoints[opponent]) deuces[_player / 2]++;
+    // First player of the pair serves the odd intervals
+    int returner = (_interval % 2 == 1 ? Math.max(_player, opponent) : Math.min(_player, opponent));
+    int returnerPoints = currentPoints[returner];
+    int serverPoints = currentPoints[returner == _player ? opponent : _player];
+    if (returnerPoints >= 4 && returnerPoints - serverPoints >= 2) {
+      breaks[returner]++;
+    } else if (returnerPoints >= 3 && returnerPoints > serverPoints) {
+      breakPoints[returner]++;
+    }
+  }
+
+  /**
+   * The game moved on to a new interval
+   */
+  synchronized void intervalChanged(int _interval) {
+    if (_interval >= intervalPoints.length) {
+      intervalPoints = Arrays.copyOf(intervalPoints, Math.max(intervalPoints.length * 2, _interval + 1));
+    }
+    interval = _interval;
+    Arrays.fill(currentPoints, 0);
+    if (tennis) Arrays.fill(runTeam, 0);   // Runs are within a tennis game
+  }
+
+  /**
+   * An advance was undone, we're back in the interval passed in with the scores it has
+   */
+  synchronized void intervalUndone(int _interval, int[] _scores) {
+    intervalPoints[interval] = 0;
+    interval = _interval;
+    System.arraycopy(_scores, 0, currentPoints, 0, numberOfTeams);
+  }
+
+  public synchronized int getTotal(int _teamId) {
+    return totals[_teamId - 1];
+  }
+
+  /**
+   * Return the points all the teams scored in the interval (0 for intervals not played)
+   */
+  public synchronized int getIntervalPoints(int _interval) {
+    return (_interval > 0 && _interval <= interval ? intervalPoints[_interval] : 0);
+  }
+
+  /**
+   * Return the points the team has scored in the current interval
+   */
+  public synchronized int getCurrentIntervalPoints(int _teamId) {
+    return currentPoints[_teamId - 1];
+  }
+
+  /**
+   * Return the team that's on a run right now (the last to score, 0 if nobody has)
+   *
+   * @param _teamId Any team for most sports, for tennis a player of the pair
+   */
+  public synchronized int getRunTeam(int _teamId) {
+    return runTeam[runGroup(_teamId)];
+  }
+
+  /**
+   * Return the points in the current run (see getRunTeam)
+   *
+   * @param _teamId Any team for most sports, for tennis a player of the pair
+   */
+  public synchronized int getRunPoints(int _teamId) {
+    return runPoints[runGroup(_teamId)];
+  }
+
+  private int runGroup(int _teamId) {
+    return (tennis ? Math.min((_teamId - 1) / 2, runTeam.length - 1) : 0);
+  }
+
+  /**
+   * Return the longest run the team has had (points with nobody else scoring)
+   */
+  public synchronized int getLongestRun(int _teamId) {
+    return longestRun[_teamId - 1];
+  }
+
+  /**
+   * Return the largest lead the team has had
+   */
+  public synchronized int getLargestLead(int _teamId) {
+    return largestLead[_teamId - 1];
+  }
+
+  /**
+   * Return the number of times the lead went to a different team
+   */
+  public synchronized int getLeadChanges() {
+    return leadChanges;
+  }
+
+  /**
+   * Return the team that's ahead of everyone else (0 when it's tied at the top)
+   */
+  public synchronized int getLeader() {
+    if (second < 0) return (numberOfTeams == 1 ? 1 : 0);
+    return (ahead(first, second) ? first + 1 : 0);
+  }
+
+  /**
+   * Return the number of deuces in the tennis pair's games
+   *
+   * @param _teamId Either player of the pair
+   */
+  public synchronized int getDeuces(int _teamId) {
+    return (tennis ? deuces[runGroup(_teamId)] : 0);
+  }
+
+  /**
+   * Return the number of break points the tennis player has had
+   */
+  public synchronized int getBreakPoints(int _teamId) {
+    return breakPoints[_teamId - 1];
+  }
+
+  /**
+   * Return the number of games the tennis player broke serve in
+   */
+  public synchronized int getBreaks(int _teamId) {
+    return breaks[_teamId - 1];
+  }
+}
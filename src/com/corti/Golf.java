@@ -1,14 +1,369 @@
 package com.corti;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
 /**
  * This is the concrete class for scoring a golf game, it uses the default
- * logic in the SportsGame (abstract) class so I didn't need to override anything
- * here.
+ * logic in the SportsGame (abstract) class for the scoreboard (an interval is a hole).
  * Created by duffy_w530 on 3/10/2017.
+ * <p>
+ * For a real tournament (150+ players, 4 rounds) the players aren't all on the same hole
+ * so each player also has a scorecard with the par for every hole, and hole marshals post
+ * a player's score for any hole with postHoleScore (from as many threads as they like when
+ * concurrent scoring is on, posts share the game's scoring lock and only take the player's
+ * card lock; the game is only locked on its own when a post moves it on to a new hole).
+ * The card follows the game's scores, however they got there.  The leaderboard is kept
+ * in a concurrent skip list of long keys (to par, holes played and player packed
+ * together) so a posted score moves the player in O(log n) and reading the top of the
+ * board never looks at anyone's card.
  */
 public class Golf extends SportsGame {
+  // A standard par 72 layout, used when the course isn't given
+  private static final int[] DEFAULT_PARS = { 4, 4, 3, 5, 4, 4, 3, 4, 5, 4, 4, 3, 5, 4, 4, 3, 4, 5 };
+
+  private static final int TO_PAR_BIAS = 1 << 20;     // Keeps to par positive in the key
+  private static final int MAX_HOLES = (1 << 21) - 1;
+  // Limits of a course that can be logged (see GameEventLog.logCreate and SportsGame.setIntervalScore)
+  private static final int MAX_PAR = 0xff;
+  private static final int MAX_HOLES_PER_ROUND = 0xff;
+  private static final int MAX_COURSE_HOLES = 0x7fff;
+
+  private final int rounds;
+  private final int[] pars;              // Par for each hole of the course (one round)
+  private final int holesPerRound;
+  private int[] card;                    // Strokes per player per hole, [player * totalHoles + hole], 0 not played
+  private int[] strokes;                 // Per player: total strokes on holes played
+  private int[] parPlayed;               // Per player: par of the holes played
+  private int[] holesPlayed;             // Per player
+  private long[] boardKey;               // Per player: their key in the leaderboard
+  private Object[] cardLocks;            // Per player: held while their card/key changes
+  private ConcurrentSkipListSet<Long> leaderboard;
+  private String[] roundLabels;          // getInterval text when there's more than one round
 
   public Golf(int _numPlayers) {
-    initGame("Golf", false, _numPlayers, 18, "Hole", false);
+    this(_numPlayers, 1, DEFAULT_PARS);
+  }
+
+  /**
+   * Constructor for a tournament on a standard par 72 course
+   *
+   * @param _numPlayers Number of players in the field
+   * @param _rounds Number of rounds (i.e. 4)
+   */
+  public Golf(int _numPlayers, int _rounds) {
+    this(_numPlayers, _rounds, DEFAULT_PARS);
+  }
+
+  /**
+   * Constructor for a tournament
+   *
+   * @param _numPlayers Number of players in the field
+   * @param _rounds Number of rounds (i.e. 4)
+   * @param _pars Par for each hole of the course (usually 18 of them)
+   */
+  public Golf(int _numPlayers, int _rounds, int[] _pars) {
+    initGame("Golf", false, _numPlayers, Math.max(_rounds, 1) * _pars.length, "Hole", false);
+    rounds = Math.max(_rounds, 1);
+    pars = _pars.clone();
+    holesPerRound = pars.length;
+    int players = Math.max(_numPlayers, 0);
+    card = new int[players * rounds * holesPerRound];
+    strokes = new int[players];
+    parPlayed = new int[players];
+    holesPlayed = new int[players];
+    boardKey = new long[players];
+    cardLocks = new Object[players];
+    leaderboard = new ConcurrentSkipListSet<>();
+    for (int player = 0; player < players; player++) {
+      cardLocks[player] = new Object();
+      boardKey[player] = boardKey(0, 0, player);
+      leaderboard.add(boardKey[player]);
+    }
+  }
+
+  /**
+   * Key for the leaderboard, sorts by to par (lowest first), then most holes played and
+   * then player so every key is different
+   */
+  private static long boardKey(int _toPar, int _holesPlayed, int _player) {
+    return ((long) (_toPar + TO_PAR_BIAS) << 42) | ((long) (MAX_HOLES - _holesPlayed) << 21) | _player;
+  }
+
+  /**
+   * Post a player's score for a hole (replaces what was there, 0 takes the hole off their
+   * card).  The game is on the furthest hole anyone has got to, so posting a hole past it
+   * moves the game on to that hole.  The score goes in the game like any other (see
+   * SportsGame.setIntervalScore) so it's logged, can be undone and is in the snapshots,
+   * and the card follows it.  With concurrent scoring this can be called from many threads
+   * at once.
+   *
+   * @param _playerId Player (1->number of players)
+   * @param _round Round (1->rounds)
+   * @param _hole Hole in the round (1->holes on the course)
+   * @param _strokes Strokes taken on the hole
+   * @return boolean false if the player/round/hole isn't valid
+   */
+  public boolean postHoleScore(int _playerId, int _round, int _hole, int _strokes) {
+    if (_playerId < 1 || _playerId > strokes.length || _round < 1 || _round > rounds
+        || _hole < 1 || _hole > holesPerRound || _strokes < 0) {
+      return false;
+    }
+    int interval = (_round - 1) * holesPerRound + _hole;
+    int current;
+    while ((current = getCurrentInterval()) < interval && isGameOver() == false) {
+      advanceIntervalFrom(current);
+    }
+    return setIntervalScore(_playerId, interval, _strokes);
+  }
+
+  /**
+   * The fewest strokes lead, so the stats rank that way
+   */
+  protected GameStats createStats() {
+    return new GameStats(getNumberOfTeams(), getNumberOfIntervals(), false, true);
+  }
+
+  /**
+   * Keep the card up to date as scores go in the game (entered for the current hole,
+   * posted for any hole or undone)
+   */
+  protected void scoreChanged(int _teamId, int _interval) {
+    if (_interval <= rounds * holesPerRound) updateCard(_teamId - 1, _interval);
+  }
+
+  /**
+   * Put the player's strokes for a hole (interval) on their card and move them on the
+   * board; the score is read while we hold their card so when two scores for the hole
+   * race the card ends up with the last one, not whichever caller got here last.
+   */
+  private void updateCard(int _player, int _interval) {
+    int par = pars[(_interval - 1) % holesPerRound];
+    synchronized (cardLocks[_player]) {
+      int holeStrokes = Math.max(getScore(_player + 1, _interval), 0);
+      int pos = _player * rounds * holesPerRound + (_interval - 1);
+      int old = card[pos];
+      if (old == holeStrokes) return;
+      if (old != 0) {
+        strokes[_player] -= old;
+        parPlayed[_player] -= par;
+        holesPlayed[_player]--;
+      }
+      if (holeStrokes != 0) {
+        strokes[_player] += holeStrokes;
+        parPlayed[_player] += par;
+        holesPlayed[_player]++;
+      }
+      card[pos] = holeStrokes;
+
+      // Move them on the board, they're briefly off it but never on it twice
+      long newKey = boardKey(strokes[_player] - parPlayed[_player], holesPlayed[_player], _player);
+      leaderboard.remove(boardKey[_player]);
+      boardKey[_player] = newKey;
+      leaderboard.add(newKey);
+    }
+  }
+
+  /**
+   * Return the player's score relative to par for the holes they've played
+   *
+   * @param _playerId Player (1->number of players)
+   * @return int to par (negative is under par), Integer.MIN_VALUE if the player isn't valid
+   */
+  public int getToPar(int _playerId) {
+    if (_playerId < 1 || _playerId > strokes.length) return Integer.MIN_VALUE;
+    synchronized (cardLocks[_playerId - 1]) {
+      return strokes[_playerId - 1] - parPlayed[_playerId - 1];
+    }
+  }
+
+  /**
+   * Return the number of holes the player has finished (Integer.MIN_VALUE if the player
+   * isn't valid)
+   */
+  public int getHolesPlayed(int _playerId) {
+    if (_playerId < 1 || _playerId > strokes.length) return Integer.MIN_VALUE;
+    synchronized (cardLocks[_playerId - 1]) {
+      return holesPlayed[_playerId - 1];
+    }
+  }
+
+  /**
+   * Return the player's strokes for a hole (0 if it hasn't been played, Integer.MIN_VALUE
+   * if the player, round or hole isn't valid)
+   */
+  public int getHoleScore(int _playerId, int _round, int _hole) {
+    if (_playerId < 1 || _playerId > strokes.length || _round < 1 || _round > rounds
+        || _hole < 1 || _hole > holesPerRound) {
+      return Integer.MIN_VALUE;
+    }
+    synchronized (cardLocks[_playerId - 1]) {
+      return card[(_playerId - 1) * rounds * holesPerRound + (_round - 1) * holesPerRound + (_hole - 1)];
+    }
+  }
+
+  public int getRounds() {
+    return rounds;
+  }
+
+  /**
+   * Return the number of holes on the course (a round)
+   */
+  public int getHolesPerRound() {
+    return holesPerRound;
+  }
+
+  /**
+   * Return indicator if a game can be played over the rounds and course passed in (null
+   * pars is the standard course): pars from 1 to 255, at most 255 holes a round and
+   * 32767 holes in all
+   */
+  static boolean isValidCourse(int _rounds, int[] _pars) {
+    int[] course = (_pars == null ? DEFAULT_PARS : _pars);
+    if (_rounds < 1 || course.length < 1 || course.length > MAX_HOLES_PER_ROUND
+        || (long) _rounds * course.length > MAX_COURSE_HOLES) {
+      return false;
+    }
+    for (int par : course) {
+      if (par < 1 || par > MAX_PAR) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return indicator if this game's rounds and course are within the limits (see isValidCourse)
+   */
+  boolean hasValidCourse() {
+    return isValidCourse(rounds, pars);
+  }
+
+  /**
+   * Return a new game like this one (no scores) with the par for one hole of the course set,
+   * the other holes keep the par they had here; this is how the event log rebuilds a
+   * course one hole at a time (see GameEventLog.logCreate)
+   *
+   * @param _rounds Rounds
+   * @param _holesPerRound Holes on the course
+   * @param _hole Hole to set (1 offset)
+   * @param _par Par for the hole
+   * @return Golf with the course
+   */
+  Golf withPar(int _rounds, int _holesPerRound, int _hole, int _par) {
+    int[] course = Arrays.copyOf(pars, _holesPerRound);
+    course[_hole - 1] = _par;
+    return new Golf(getNumberOfTeams(), _rounds, course);
+  }
+
+  /**
+   * Return indicator if the course is the standard par 72 one (what new Golf(players) uses)
+   */
+  boolean isStandardCourse() {
+    return Arrays.equals(pars, DEFAULT_PARS);
+  }
+
+  /**
+   * Return par for the hole passed in (1 offset)
+   */
+  public int getPar(int _hole) {
+    return pars[_hole - 1];
+  }
+
+  /**
+   * Return the top of the leaderboard.  Players on the same score share a position (shown
+   * as T3 etc.. in outputLeaderboard).  With marshals posting while this runs the board is
+   * right for each player but a player moving at that moment can be missed.
+   *
+   * @param _count Number of players wanted
+   * @return List of entries, leader first
+   */
+  public List<LeaderboardEntry> getLeaderboard(int _count) {
+    List<LeaderboardEntry> entries = new ArrayList<>(Math.min(Math.max(_count, 0), strokes.length));
+    int position = 0;
+    int lastToPar = Integer.MIN_VALUE;
+    Iterator<Long> keys = leaderboard.iterator();
+    while (entries.size() < _count && keys.hasNext()) {
+      long key = keys.next();
+      int toPar = (int) (key >>> 42) - TO_PAR_BIAS;
+      int played = MAX_HOLES - (int) ((key >>> 21) & MAX_HOLES);
+      int player = (int) (key & MAX_HOLES);
+      if (toPar != lastToPar) {
+        position = entries.size() + 1;
+        lastToPar = toPar;
+      }
+      entries.add(new LeaderboardEntry(player + 1, position, toPar, played));
+    }
+    return entries;
+  }
+
+  /**
+   * Show the top of the leaderboard (position, player, to par and holes played)
+   *
+   * @param _out Where to show it
+   * @param _count Number of players to show
+   */
+  public void outputLeaderboard(PrintStream _out, int _count) {
+    List<LeaderboardEntry> entries = getLeaderboard(_count);
+    _out.format("%n%-6s%-10s%8s%8s%n", "Pos", "Player", "To par", "Thru");
+    for (int i = 0; i < entries.size(); i++) {
+      LeaderboardEntry entry = entries.get(i);
+      boolean tied = (i > 0 && entries.get(i - 1).position == entry.position)
+                     || (i + 1 < entries.size() && entries.get(i + 1).position == entry.position);
+      _out.format("%-6s%-10s%8s%8d%n", (tied ? "T" : "") + entry.position, "Player " + entry.playerId,
+                  toParText(entry.toPar), entry.holesPlayed);
+    }
+  }
+
+  /**
+   * Return to par the way it's shown on a board (E for even, +3, -2)
+   */
+  public static String toParText(int _toPar) {
+    if (_toPar == 0) return "E";
+    return (_toPar > 0 ? "+" : "") + _toPar;
+  }
+
+  /**
+   * With more than one round the interval shows the round too (i.e. Round 2 3rd Hole)
+   */
+  public String getInterval(int _interval) {
+    if (rounds == 1 || _interval < 1 || _interval > rounds * holesPerRound) {
+      return super.getInterval(_interval);
+    }
+    String[] labels = roundLabels;
+    if (labels == null) {
+      labels = new String[rounds * holesPerRound + 1];
+      roundLabels = labels;
+    }
+    String label = labels[_interval];
+    if (label == null) {
+      label = "Round " + ((_interval - 1) / holesPerRound + 1) + " " + super.getInterval((_interval - 1) % holesPerRound + 1);
+      labels[_interval] = label;
+    }
+    return label;
+  }
+
+  /**
+   * One line of the leaderboard
+   */
+  public static final class LeaderboardEntry {
+    final int playerId;
+    final int position;
+    final int toPar;
+    final int holesPlayed;
+
+    LeaderboardEntry(int _playerId, int _position, int _toPar, int _holesPlayed) {
+      playerId = _playerId;
+      position = _position;
+      toPar = _toPar;
+      holesPlayed = _holesPlayed;
+    }
+
+    public int getPlayerId() { return playerId; }
+    public int getPosition() { return position; }
+    public int getToPar() { return toPar; }
+    public int getHolesPlayed() { return holesPlayed; }
   }
 }
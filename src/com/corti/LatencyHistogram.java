@@ -0,0 +1,103 @@
+package com.corti;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records latencies (in nanoseconds) into log-linear buckets the way an HDR
+ * histogram does: each power of 2 is split into SUB_BUCKETS buckets, so any recorded
+ * value is within about 12% of the bucket it lands in.  Recording is a couple of shifts
+ * and an atomic add so it can be called from many threads at once.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Record a value
+   *
+   * @param _nanos latency in nanoseconds (negative values are recorded as 0)
+   */
+  public void record(long _nanos) {
+    long value = Math.max(_nanos, 0);
+    counts.incrementAndGet(bucketOf(value));
+    count.increment();
+    total.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * Return the bucket a value goes in, values below SUB_BUCKETS get a bucket each and
+   * above that the bucket is the power of 2 plus the next SUB_BUCKET_BITS bits
+   */
+  private static int bucketOf(long _value) {
+    if (_value < SUB_BUCKETS) return (int) _value;
+    int magnitude = 63 - Long.numberOfLeadingZeros(_value);       // >= SUB_BUCKET_BITS
+    int subBucket = (int) (_value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Return the highest value that lands in the bucket
+   */
+  private static long bucketTop(int _bucket) {
+    if (_bucket < SUB_BUCKETS) return _bucket;
+    int magnitude = (_bucket / SUB_BUCKETS) + SUB_BUCKET_BITS - 1;
+    long subBucket = _bucket % SUB_BUCKETS;
+    long bottom = (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+    return bottom + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Return the mean of the values recorded (0 if none)
+   */
+  public double getMean() {
+    long recorded = count.sum();
+    return (recorded == 0 ? 0 : (double) total.sum() / recorded);
+  }
+
+  /**
+   * Return the value at the percentile passed in (i.e. 99.9), it's the top of the
+   * bucket the percentile falls in so it's never less than the real value
+   *
+   * @param _percentile percentile (0->100)
+   * @return long value in nanoseconds, 0 if nothing recorded
+   */
+  public long getPercentile(double _percentile) {
+    long recorded = 0;
+    for (int i = 0; i < BUCKETS; i++) recorded += counts.get(i);
+    if (recorded == 0) return 0;
+    long wanted = Math.max(1, (long) Math.ceil(recorded * _percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= wanted) return Math.min(bucketTop(i), getMax());
+    }
+    return getMax();
+  }
+
+  /**
+   * Clear everything recorded
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+    count.reset();
+    total.reset();
+    max.reset();
+  }
+}
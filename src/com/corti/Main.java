@@ -1,12 +1,36 @@
 package com.corti;
 
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
 
 /**
  * This class is the controller for game scoring; the public main method prompts
  * for the type of game to score and then invokes the scoring method to do that.
  * I tried to isolate the game from ui; the ui should prompt for the team/points
  * and then call methods in the game object to update it's attributes.
+ * <p>
+ * Run with 'server [port] [eventLog]' to host many games over a local socket (see
+ * GameServer) instead of scoring one game on the console, when an event log is given
+ * the games in it are recovered at startup and all new events are logged to it.  Add
+ * -Dscoreboard.http.port=8080 to also serve the scoreboards over http (see
+ * ScoreboardHttpServer).
+ * Run with 'script &lt;file&gt; &lt;sport&gt; [players]' to score a game from a script of
+ * requests (one per line, same as you'd type them) and show the final score, or with
+ * 'batch &lt;directory|-&gt; [threads]' to score a directory (or stdin) of scripts in
+ * parallel (see BatchScorer).  Add -Dscoreboard.metrics=true to collect metrics (see
+ * GameMetrics), and -Dscoreboard.rules=&lt;directory&gt; to add the sports described by the
+ * rules files in it (see RuleSet), they can be used anywhere a sport name is given (so
+ * can golf/&lt;rounds&gt;[/&lt;par,par,...&gt;] for a tournament, see GameRegistry.createGame).
+ * Add -Dscoreboard.archive=&lt;directory&gt; to batch or server to archive finished games
+ * (see GameArchive; the server archives a game when a session finishes it, see GameServer)
+ * and run with 'archive &lt;directory&gt;' for a summary of what's in one.
+ * Run with 'standby &lt;replicationPort&gt; [port] [eventLog]' to follow a primary server
+ * started with -Dscoreboard.standby=&lt;replicationPort&gt; (it needs an event log) and take
+ * over hosting its games on port when it goes away (see GameReplicator and GameStandby),
+ * add -Dscoreboard.standby.sync=false so scoring doesn't wait for the standby's ack and
+ * -Dscoreboard.standby.timeout=&lt;millis&gt; to change how long it waits before giving up
+ * on the standby (5000 by default).
  */
 public class Main {
 
@@ -22,14 +46,76 @@ public class Main {
     return rtnValue;
   }
 
+  /**
+   * Prompt for a number that can be more than one digit (i.e. the players in a golf
+   * field), keeps asking until it's in the range; returns 0 when there's no more input
+   */
+  public static int getIntResponse(int _low, int _high, String _msgPrefix) {
+    String prompt = _msgPrefix;
+    try {
+      while (true) {
+        System.out.println(prompt + ">");
+        String line = SportGameUI.CONSOLE.readLine();
+        if (line == null) return 0;
+        try {
+          int value = Integer.parseInt(line.trim());
+          if (value >= _low && value <= _high) return value;
+        } catch (NumberFormatException e) {
+          // Ask again
+        }
+        prompt = _msgPrefix + " (try again): ";
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return 0;
+  }
+
   public static char getResponse(String _msgPrefix) {
     System.out.println(_msgPrefix+">");
-    Scanner scanner = new Scanner(System.in);
-    char theChar = scanner.next().charAt(0);
-    return theChar;
+    // Same reader the game ui uses, a new Scanner each time would swallow input typed ahead
+    try {
+      String line;
+      while ((line = SportGameUI.CONSOLE.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0) return line.charAt(0);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return 'q';  // No more input
   }
 
   public static void main(String[] args) {
+    GameMetrics.configureFromSystemProperties();
+    String rulesDirectory = System.getProperty("scoreboard.rules");
+    if (rulesDirectory != null) {
+      try {
+        GameRegistry.loadRules(Paths.get(rulesDirectory));
+      } catch (IOException | IllegalArgumentException e) {
+        System.out.println("Unable to load rules: " + e.getMessage());
+      }
+    }
+    if (args.length > 0 && args[0].equalsIgnoreCase("server")) {
+      runServer(args);
+      return;
+    }
+    if (args.length > 2 && args[0].equalsIgnoreCase("script")) {
+      runScript(args);
+      return;
+    }
+    if (args.length > 1 && args[0].equalsIgnoreCase("batch")) {
+      runBatch(args);
+      return;
+    }
+    if (args.length > 1 && args[0].equalsIgnoreCase("standby")) {
+      runStandby(args);
+      return;
+    }
+    if (args.length > 1 && args[0].equalsIgnoreCase("archive")) {
+      runArchiveReport(args);
+      return;
+    }
 
     /**
      * Mainline logic, show the instructions and prompt the user for what
@@ -62,8 +148,9 @@ public class Main {
           // We'll play this where user gives us the score person; could have it auto increment when
           // we have score for everyone but since user may score multiple times on same hole (if
           // they're doing incremental we're going to let user decide when hole is over
-          numberOfPlayers = getNumberResponse(1, 4, "Enter number of players (1->4): ");
-          SportGameUI golfUI = new EnterPointsUI(new Golf(numberOfPlayers), false);
+          numberOfPlayers = getIntResponse(1, 999, "Enter number of players (1->999): ");
+          int rounds = getNumberResponse(1, 4, "Enter number of rounds (1->4): ");
+          SportGameUI golfUI = new EnterPointsUI(new Golf(numberOfPlayers, rounds), false);
           golfUI.scoreGame();
           playedAGame = true;
           break;
@@ -79,6 +166,144 @@ public class Main {
     }
   }
 
+  /**
+   * Score a game from a script file and show the final score
+   *
+   * @param args command line, args[1] is the script, args[2] the sport and args[3] the number of players
+   */
+  public static void runScript(String[] args) {
+    SportsGame theGame = GameRegistry.createGame(args[2], (args.length > 3 ? Integer.parseInt(args[3]) : 2));
+    if (theGame == null) {
+      System.out.println("Can't score " + args[2]);
+      return;
+    }
+    try {
+      GameRegistry.createUI(theGame).scoreScript(Paths.get(args[1]));
+      theGame.outputGame();
+    } catch (IOException e) {
+      System.out.println("Unable to read script: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Score a batch of scripts (a directory of them or stdin when it's '-') in parallel
+   *
+   * @param args command line, args[1] is the directory (or -), args[2] the number of threads
+   */
+  public static void runBatch(String[] args) {
+    int threads = (args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+    String archiveDirectory = System.getProperty("scoreboard.archive");
+    try (GameArchive archive = (archiveDirectory == null ? null : new GameArchive(Paths.get(archiveDirectory)))) {
+      List<BatchScorer.Script> scripts = (args[1].equals("-") ? BatchScorer.readStream(System.in)
+                                                              : BatchScorer.readDirectory(Paths.get(args[1])));
+      BatchScorer scorer = new BatchScorer(threads);
+      scorer.setArchive(archive);
+      scorer.run(scripts, System.out);
+    } catch (IOException e) {
+      System.out.println("Unable to read scripts: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Show a summary of the games in an archive
+   *
+   * @param args command line, args[1] is the archive directory
+   */
+  public static void runArchiveReport(String[] args) {
+    try (GameArchive archive = new GameArchive(Paths.get(args[1]))) {
+      long startTime = System.nanoTime();
+      archive.report(System.out);
+      System.out.format("%n%-18s%d ms%n", "Elapsed", (System.nanoTime() - startTime) / 1000000);
+    } catch (IOException e) {
+      System.out.println("Unable to open archive: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Host games through the GameServer until the process is killed
+   *
+   * @param args command line, args[1] is the port (defaults to 5150), args[2] the event log
+   */
+  public static void runServer(String[] args) {
+    int port = (args.length > 1 ? Integer.parseInt(args[1]) : 5150);
+    GameRegistry registry = new GameRegistry();
+    try {
+      GameEventLog eventLog = null;
+      if (args.length > 2) {
+        eventLog = new GameEventLog(Paths.get(args[2]), 256);
+        long startTime = System.nanoTime();
+        int events = eventLog.replay(registry);
+        System.out.format("Recovered %d games from %d events in %d ms%n", registry.getGames().size(),
+                          events, (System.nanoTime() - startTime) / 1000000);
+      }
+      String standbyPort = System.getProperty("scoreboard.standby");
+      if (standbyPort != null) {
+        if (eventLog == null) {
+          System.out.println("Replicating to a standby needs an event log ('server [port] [eventLog]')");
+          return;
+        }
+        boolean synchronous = (System.getProperty("scoreboard.standby.sync", "true").equalsIgnoreCase("false") == false);
+        long ackTimeout = Long.parseLong(System.getProperty("scoreboard.standby.timeout", "5000"));
+        new GameReplicator(Integer.parseInt(standbyPort), synchronous, ackTimeout).start(eventLog);
+        System.out.println("Replicating to a standby on localhost:" + standbyPort + (synchronous ? "" : " (async)"));
+      }
+      hostGames(registry, port);
+    } catch (IOException e) {
+      System.out.println("Unable to open event log: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Follow a primary server as its standby and host its games when it goes away
+   *
+   * @param args command line, args[1] is the replication port, args[2] the port to host on
+   *             (defaults to 5150) and args[3] where to keep our copy of the event log
+   */
+  public static void runStandby(String[] args) {
+    int port = (args.length > 2 ? Integer.parseInt(args[2]) : 5150);
+    try {
+      GameStandby standby = new GameStandby(Integer.parseInt(args[1]), (args.length > 3 ? Paths.get(args[3]) : null));
+      standby.start();
+      System.out.println("Standby waiting for the primary on localhost:" + standby.getPort());
+      GameRegistry registry = standby.awaitTakeover();
+      System.out.format("Primary is gone, taking over %d games (%d records applied)%n", registry.getGames().size(),
+                        standby.getAppliedSequence());
+      hostGames(registry, port);
+    } catch (IOException e) {
+      System.out.println("Unable to start standby: " + e.getMessage());
+    } catch (InterruptedException e) {
+      // Told to stop
+    }
+  }
+
+  /**
+   * Host the games in the registry through the GameServer (and http when it's asked for)
+   * until the process is killed
+   *
+   * @param registry The games
+   * @param port Port to listen on
+   */
+  private static void hostGames(GameRegistry registry, int port) {
+    GameServer server = new GameServer(registry, port);
+    try {
+      String archiveDirectory = System.getProperty("scoreboard.archive");
+      if (archiveDirectory != null) registry.setArchive(new GameArchive(Paths.get(archiveDirectory)));
+      server.start();
+      System.out.println("Scoreboard server listening on localhost:" + server.getPort());
+      String httpPort = System.getProperty("scoreboard.http.port");
+      if (httpPort != null) {
+        ScoreboardHttpServer httpServer = new ScoreboardHttpServer(registry, Integer.parseInt(httpPort));
+        httpServer.start();
+        System.out.println("Scoreboards served on http://localhost:" + httpServer.getPort() + "/games");
+      }
+      Thread.currentThread().join();
+    } catch (IOException e) {
+      System.out.println("Unable to start server: " + e.getMessage());
+    } catch (InterruptedException e) {
+      server.stop();
+    }
+  }
+
   /**
    * Show the instructions to the user for how to score a game
    */
@@ -0,0 +1,81 @@
+package com.corti;
+
+/**
+ * This is the concrete class for a sport that's described by a RuleSet (loaded from a
+ * file) rather than having its own class; the intervals, overtime, when an interval is
+ * over and when the game is won all come from the rules.  The class is final and the
+ * rules are a final class too, so scoring a rule based sport doesn't go through any
+ * overridden methods past this one.
+ */
+public final class RuleBasedGame extends SportsGame {
+  private final RuleSet rules;
+
+  /**
+   * Constructor
+   *
+   * @param _rules Rules for the sport
+   * @param _numberOfTeams Number of teams, only used when the rules don't say
+   */
+  public RuleBasedGame(RuleSet _rules, int _numberOfTeams) {
+    initGame(_rules.getName(), _rules.isTeamSport(), (_rules.getTeams() > 0 ? _rules.getTeams() : _numberOfTeams),
+             _rules.getIntervals(), _rules.getIntervalName(), _rules.isOvertimeAllowed());
+    rules = _rules;
+  }
+
+  public RuleSet getRules() {
+    return rules;
+  }
+
+  /**
+   * The rules decide if the score ends the interval
+   */
+  public boolean isIntervalOver(int _interval) {
+    return rules.isIntervalOver(this, _interval);
+  }
+
+  /**
+   * When the rules have a number of intervals to win (i.e. best of 5 sets) the game is
+   * over as soon as a team has won that many
+   */
+  protected boolean isGameDecided(int _interval) {
+    int winsNeeded = rules.getWinsNeeded();
+    if (winsNeeded == 0) return false;
+    int[] wins = new int[getNumberOfTeams()];
+    int[] row = new int[getNumberOfTeams()];
+    for (int interval = 1; interval <= _interval; interval++) {
+      for (int i = 0; i < row.length; i++) row[i] = getScore(i + 1, interval);
+      int winner = rules.intervalWinner(row, interval);
+      if (winner > 0 && ++wins[winner - 1] >= winsNeeded) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Count the intervals each team has won (only for rules that play to a number of wins)
+   */
+  protected int[] countWins(int[][] _completedRows, int _completedCount, int[] _currentRow) {
+    if (rules.getWinsNeeded() == 0) return null;
+    int[] wins = new int[_currentRow.length];
+    for (int i = 0; i < _completedCount; i++) {
+      int winner = rules.intervalWinner(_completedRows[i], i + 1);
+      if (winner > 0) wins[winner - 1]++;
+    }
+    int winner = rules.intervalWinner(_currentRow, _completedCount + 1);
+    if (winner > 0) wins[winner - 1]++;
+    return wins;
+  }
+
+  /**
+   * Same scoreboard as any sport, with a line for the intervals won when they decide it
+   */
+  protected void renderScoreboard(ScoreboardRenderer _renderer, ScoreboardSnapshot _snapshot) {
+    super.renderScoreboard(_renderer, _snapshot);
+    if (_snapshot.hasWins()) {
+      _renderer.left(getIntervalName() + "s won:", 17);
+      for (int teamPos = 0; teamPos < _snapshot.getNumberOfTeams(); teamPos++) {
+        _renderer.right(_snapshot.getWins(teamPos + 1), 8).spaces(3);
+      }
+      _renderer.text(" ").newLine();
+    }
+  }
+}
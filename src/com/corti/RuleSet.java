@@ -0,0 +1,208 @@
+package com.corti;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * This class is the rules for a sport that's described in a file instead of being coded
+ * as a SportsGame subclass (see RuleBasedGame).  The file is a properties file, i.e. for
+ * volleyball:
+ * <pre>
+ *   sport=Volleyball
+ *   teams=2
+ *   intervals=5
+ *   intervalName=Set
+ *   scoring=single          # each request is one point for the team (or 'points' to enter them)
+ *   autoAdvance=true        # the score says when a set is over
+ *   target=25               # a set is over when a team has 25...
+ *   finalTarget=15          # ...15 in the last set...
+ *   winBy=2                 # ...and is 2 points ahead
+ *   winsNeeded=3            # first team to win 3 sets wins the match
+ * </pre>
+ * The other keys are teamSport (default true), overtime (play on when tied after the last
+ * interval, default false), overtimeTarget (target for overtime intervals, defaults to
+ * target) and cap (an interval is over as soon as a team gets this many, lead or not).
+ * Leave out target and cap for a sport where the scorer says when an interval is over
+ * (basketball, baseball).  With teams=0 the number of teams is whatever the game is
+ * created with (like golf).
+ * <p>
+ * Everything is checked and turned into final ints when the file is loaded, including a
+ * table of the target for each interval, so deciding if an interval is over is a table
+ * lookup and a pass over the interval's scores; there's nothing to interpret and no calls
+ * that depend on the sport.
+ */
+public final class RuleSet {
+  private final String name;             // Sport name (as shown)
+  private final boolean teamSport;
+  private final int teams;               // 0 means the game is created with the number
+  private final int intervals;
+  private final String intervalName;
+  private final boolean overtimeAllowed;
+  private final boolean singlePointScoring;
+  private final boolean autoAdvance;
+  private final int[] targets;           // Target for each regulation interval (1 offset), 0 none
+  private final int overtimeTarget;
+  private final int winBy;
+  private final int cap;                 // 0 none
+  private final int winsNeeded;          // Intervals to win the game, 0 means play them all
+
+  private RuleSet(Properties _rules, String _source) {
+    name = required(_rules, "sport", _source);
+    String lowerName = name.toLowerCase();
+    if (lowerName.equals("football") || lowerName.equals("tennis") || lowerName.equals("golf")) {
+      throw new IllegalArgumentException(_source + ": " + name + " is already a sport");
+    }
+    teamSport = bool(_rules, "teamSport", true, _source);
+    teams = number(_rules, "teams", 2, 0, _source);
+    intervals = number(_rules, "intervals", -1, 1, _source);
+    intervalName = required(_rules, "intervalName", _source);
+    overtimeAllowed = bool(_rules, "overtime", false, _source);
+    String scoring = _rules.getProperty("scoring", "points").trim();
+    if (scoring.equals("single") == false && scoring.equals("points") == false) {
+      throw new IllegalArgumentException(_source + ": scoring must be 'single' or 'points'");
+    }
+    singlePointScoring = scoring.equals("single");
+    autoAdvance = bool(_rules, "autoAdvance", false, _source);
+    int target = number(_rules, "target", 0, 0, _source);
+    int finalTarget = number(_rules, "finalTarget", target, 0, _source);
+    overtimeTarget = number(_rules, "overtimeTarget", target, 0, _source);
+    winBy = number(_rules, "winBy", 1, 1, _source);
+    cap = number(_rules, "cap", 0, 0, _source);
+    winsNeeded = number(_rules, "winsNeeded", 0, 0, _source);
+    if (winsNeeded > intervals) {
+      throw new IllegalArgumentException(_source + ": winsNeeded is more than the intervals");
+    }
+
+    targets = new int[intervals + 1];
+    for (int interval = 1; interval <= intervals; interval++) {
+      targets[interval] = (interval == intervals ? finalTarget : target);
+    }
+  }
+
+  /**
+   * Load and check the rules in a file
+   *
+   * @param _file The rules file
+   * @return RuleSet
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if a rule is missing or not valid (the message says which)
+   */
+  public static RuleSet load(Path _file) throws IOException {
+    Properties rules = new Properties();
+    try (Reader in = Files.newBufferedReader(_file, StandardCharsets.UTF_8)) {
+      rules.load(in);
+    }
+    return new RuleSet(rules, _file.getFileName().toString());
+  }
+
+  /**
+   * Check rules that are already in a Properties (i.e. built in code)
+   *
+   * @param _rules The rules
+   * @return RuleSet
+   * @throws IllegalArgumentException if a rule is missing or not valid
+   */
+  public static RuleSet from(Properties _rules) {
+    return new RuleSet(_rules, "rules");
+  }
+
+  private static String required(Properties _rules, String _key, String _source) {
+    String value = _rules.getProperty(_key);
+    if (value == null || value.trim().isEmpty()) {
+      throw new IllegalArgumentException(_source + ": " + _key + " is required");
+    }
+    return value.trim();
+  }
+
+  private static int number(Properties _rules, String _key, int _default, int _min, String _source) {
+    String value = _rules.getProperty(_key);
+    if (value == null) {
+      if (_default < _min) throw new IllegalArgumentException(_source + ": " + _key + " is required");
+      return _default;
+    }
+    try {
+      int number = Integer.parseInt(value.trim());
+      if (number >= _min) return number;
+    } catch (NumberFormatException ne) {
+      // Fall through to the error
+    }
+    throw new IllegalArgumentException(_source + ": " + _key + " must be a number >= " + _min);
+  }
+
+  private static boolean bool(Properties _rules, String _key, boolean _default, String _source) {
+    String value = _rules.getProperty(_key);
+    if (value == null) return _default;
+    value = value.trim();
+    if (value.equalsIgnoreCase("true")) return true;
+    if (value.equalsIgnoreCase("false")) return false;
+    throw new IllegalArgumentException(_source + ": " + _key + " must be true or false");
+  }
+
+  /**
+   * Return flag to identify if the interval is over based on its scores
+   *
+   * @param _theGame The game
+   * @param _interval The interval (1 offset)
+   * @return boolean true if the score ends the interval
+   */
+  boolean isIntervalOver(SportsGame _theGame, int _interval) {
+    int target = (_interval <= intervals ? targets[_interval] : overtimeTarget);
+    if (target == 0 && cap == 0) return false;
+    int top = Integer.MIN_VALUE;
+    int second = Integer.MIN_VALUE;
+    for (int teamId = 1; teamId <= _theGame.getNumberOfTeams(); teamId++) {
+      int score = _theGame.getScore(teamId, _interval);
+      if (score > top) {
+        second = top;
+        top = score;
+      } else if (score > second) {
+        second = score;
+      }
+    }
+    return isOver(target, top, second);
+  }
+
+  /**
+   * Return the team that won an interval (0 if the scores don't end it)
+   *
+   * @param _row Scores for the interval (0 offset by team)
+   * @param _interval The interval (1 offset)
+   * @return int teamId of the winner or 0
+   */
+  int intervalWinner(int[] _row, int _interval) {
+    int target = (_interval <= intervals ? targets[_interval] : overtimeTarget);
+    if (target == 0 && cap == 0) return 0;
+    int top = Integer.MIN_VALUE;
+    int second = Integer.MIN_VALUE;
+    int winner = 0;
+    for (int i = 0; i < _row.length; i++) {
+      if (_row[i] > top) {
+        second = top;
+        top = _row[i];
+        winner = i + 1;
+      } else if (_row[i] > second) {
+        second = _row[i];
+      }
+    }
+    return (isOver(target, top, second) && top != second ? winner : 0);
+  }
+
+  private boolean isOver(int _target, int _top, int _second) {
+    if (cap > 0 && _top >= cap) return true;
+    return (_target > 0 && _top >= _target && (long) _top - _second >= winBy);
+  }
+
+  public String getName() { return name; }
+  public boolean isTeamSport() { return teamSport; }
+  public int getTeams() { return teams; }
+  public int getIntervals() { return intervals; }
+  public String getIntervalName() { return intervalName; }
+  public boolean isOvertimeAllowed() { return overtimeAllowed; }
+  public boolean isSinglePointScoring() { return singlePointScoring; }
+  public boolean isAutoAdvance() { return autoAdvance; }
+  public int getWinsNeeded() { return winsNeeded; }
+}
@@ -0,0 +1,128 @@
+package com.corti;
+
+/**
+ * This class holds a burst of scoring records (team/points or 'advance the interval') to
+ * be applied to a game in one go with SportsGame.applyBatch.  The records are kept in
+ * primitive arrays that are reused when the batch is cleared, and after the batch is
+ * applied each record has an outcome (OUTCOME_xxx below) telling you what happened to it.
+ */
+public class ScoreBatch {
+  public static final byte OUTCOME_NOT_APPLIED = 0;  // Batch hasn't been applied yet
+  public static final byte OUTCOME_APPLIED = 1;      // Points were added
+  public static final byte OUTCOME_ADVANCED = 2;     // Interval was advanced (or that ended the game)
+  public static final byte OUTCOME_INVALID_TEAM = 3; // Team isn't in the game, nothing done
+  public static final byte OUTCOME_GAME_OVER = 4;    // Game was already over, nothing done
+
+  private static final int ADVANCE = 0;              // Team id used to mark an advance record
+
+  private int[] teams;
+  private int[] points;
+  private byte[] outcomes;
+  private int size;
+
+  /**
+   * Constructor
+   *
+   * @param _capacity Number of records we expect (we grow if more are added)
+   */
+  public ScoreBatch(int _capacity) {
+    int capacity = Math.max(_capacity, 8);
+    teams = new int[capacity];
+    points = new int[capacity];
+    outcomes = new byte[capacity];
+  }
+
+  /**
+   * Add points for a team
+   *
+   * @param _teamId teamId (1->numberOfTeams)
+   * @param _points points scored
+   */
+  public void addScore(int _teamId, int _points) {
+    add(_teamId, _points);
+  }
+
+  /**
+   * Add a record to advance to the next interval
+   */
+  public void addAdvance() {
+    add(ADVANCE, 0);
+  }
+
+  /**
+   * Add records from a packed array, each record is two ints (team, points) where a team
+   * of 0 means advance the interval.  This is handy for feeds that already have the data
+   * in a buffer.
+   *
+   * @param _records packed records
+   * @param _offset position of the first record
+   * @param _count number of records
+   */
+  public void addRecords(int[] _records, int _offset, int _count) {
+    for (int i = 0; i < _count; i++) {
+      add(_records[_offset + i * 2], _records[_offset + i * 2 + 1]);
+    }
+  }
+
+  private void add(int _teamId, int _points) {
+    if (size == teams.length) {
+      int capacity = size * 2;
+      int[] newTeams = new int[capacity];
+      int[] newPoints = new int[capacity];
+      System.arraycopy(teams, 0, newTeams, 0, size);
+      System.arraycopy(points, 0, newPoints, 0, size);
+      byte[] newOutcomes = new byte[capacity];
+      System.arraycopy(outcomes, 0, newOutcomes, 0, size);
+      teams = newTeams;
+      points = newPoints;
+      outcomes = newOutcomes;
+    }
+    teams[size] = _teamId;
+    points[size] = _points;
+    outcomes[size] = OUTCOME_NOT_APPLIED;
+    size++;
+  }
+
+  /**
+   * Empty the batch so it can be reused (the arrays are kept)
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Return the number of records in the batch
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return flag to identify if the record is an advance (as opposed to points)
+   */
+  public boolean isAdvance(int _record) {
+    return (teams[_record] == ADVANCE);
+  }
+
+  public int getTeam(int _record) {
+    return teams[_record];
+  }
+
+  public int getPoints(int _record) {
+    return points[_record];
+  }
+
+  /**
+   * Return what happened to the record when the batch was applied
+   *
+   * @param _record record (0 offset)
+   * @return byte OUTCOME_xxx
+   */
+  public byte getOutcome(int _record) {
+    return outcomes[_record];
+  }
+
+  void setOutcome(int _record, byte _outcome) {
+    outcomes[_record] = _outcome;
+  }
+}
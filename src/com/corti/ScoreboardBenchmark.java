@@ -0,0 +1,141 @@
+package com.corti;
+
+import java.util.function.IntSupplier;
+
+/**
+ * This class times the scoring hot paths (addScore, advanceInterval, runTotal, the tennis
+ * methods and outputGame) for different numbers of teams and intervals, including a long
+ * overtime.  It's a plain main so it runs without any build tooling:
+ * <pre>
+ *   java com.corti.ScoreboardBenchmark [iterations]
+ * </pre>
+ * Each benchmark is warmed up first and then timed; we print the average nanoseconds per
+ * operation.  Results of each operation are summed into a 'sink' that's printed at the
+ * end so the jit can't throw the work away.
+ */
+public class ScoreboardBenchmark {
+  private static final int[] TEAM_COUNTS = { 2, 4, 16 };
+  private static final int[] INTERVAL_COUNTS = { 4, 18, 200 };  // 200 is deep into overtime
+
+  private static long sink;
+
+  public static void main(String[] args) {
+    int iterations = (args.length > 0 ? Integer.parseInt(args[0]) : 2000000);
+
+    System.out.format("%-40s %8s %10s %12s%n", "Benchmark", "Teams", "Intervals", "ns/op");
+    for (int teams : TEAM_COUNTS) {
+      for (int intervals : INTERVAL_COUNTS) {
+        SportsGame theGame = tiedGame(teams, intervals);
+        int[] team = { 0 };
+        run("SportsGame.addScore", teams, intervals, iterations, () -> {
+          team[0] = (team[0] % teams) + 1;
+          theGame.addScore(team[0], 1);
+          return team[0];
+        });
+        run("SportsGame.runTotal", teams, intervals, iterations, () -> {
+          team[0] = (team[0] + 1) % teams;
+          return theGame.runTotal(team[0]);
+        });
+        run("SportsGame.getScore", teams, intervals, iterations, () -> {
+          team[0] = (team[0] % teams) + 1;
+          return theGame.getScore(team[0], intervals);
+        });
+        run("SportsGame.getLeader", teams, intervals, iterations, () -> {
+          theGame.addScore(1, 0);  // Makes the cached leader stale
+          return theGame.getLeader();
+        });
+        // Tied so every advance checks for the tie and goes on to another interval
+        SportsGame overtime = tiedGame(teams, intervals);
+        run("SportsGame.advanceInterval/inATie", teams, intervals, iterations / 100, () -> {
+          overtime.advanceInterval();
+          return overtime.getCurrentInterval();
+        });
+        run("SportsGame.outputGame", teams, intervals, iterations / 1000, () -> renderLength(theGame));
+      }
+    }
+
+    for (int players : new int[] { 2, 4 }) {
+      for (int games : INTERVAL_COUNTS) {
+        Tennis match = tennisMatch(players, games);
+        int[] interval = { 0 };
+        run("Tennis.isIntervalOver", players, games, iterations, () -> {
+          interval[0] = (interval[0] % games) + 1;
+          return (match.isIntervalOver(interval[0]) ? 1 : 0);
+        });
+        run("Tennis.totalWins", players, games, iterations / 100, () -> match.totalWins(1));
+        run("Tennis.outputGame", players, games, iterations / 1000, () -> renderLength(match));
+      }
+    }
+
+    int[] points = { 0 };
+    run("TennisGameScore.getScore", 2, 1, iterations, () -> {
+      points[0] = (points[0] + 1) & 7;
+      return Tennis.TennisGameScore.getScore(points[0], 7 - points[0]).ordinal();
+    });
+
+    System.out.println("sink " + sink);
+  }
+
+  /**
+   * Warm up then time the operation, prints the average time per call
+   */
+  private static void run(String _name, int _teams, int _intervals, int _iterations, IntSupplier _operation) {
+    int iterations = Math.max(_iterations, 10);
+    for (int i = 0; i < iterations; i++) sink += _operation.getAsInt();
+
+    long startTime = System.nanoTime();
+    for (int i = 0; i < iterations; i++) sink += _operation.getAsInt();
+    double nsPerOp = (double) (System.nanoTime() - startTime) / iterations;
+
+    System.out.format("%-40s %8d %10d %12.1f%n", _name, _teams, _intervals, nsPerOp);
+  }
+
+  /**
+   * Return a game that's tied and on the interval passed in (past the regulation
+   * intervals means it's in overtime)
+   */
+  private static SportsGame tiedGame(int _teams, int _intervals) {
+    SportsGame theGame = new OvertimeGame(_teams);
+    for (int interval = 1; interval < _intervals; interval++) {
+      theGame.advanceInterval();
+    }
+    return theGame;
+  }
+
+  /**
+   * Return a tennis match where the players have played the number of games passed in,
+   * the player that wins alternates and every game goes to deuce a couple of times.
+   */
+  private static Tennis tennisMatch(int _players, int _games) {
+    Tennis match = new Tennis(_players);
+    for (int game = 0; game < _games && match.isGameOver() == false; game++) {
+      for (int point = 0; point < 5; point++) {
+        for (int player = 1; player <= _players; player++) match.addScore(player, 1);
+      }
+      for (int player = (game % 2) + 1; player <= _players; player += 2) match.addScore(player, 2);
+      match.advanceIntervalFrom(match.getCurrentInterval());
+    }
+    return match;
+  }
+
+  private static final ScoreboardRenderer RENDERER = new ScoreboardRenderer();
+  private static final StringBuilder OUTPUT = new StringBuilder();
+
+  /**
+   * Render the game (what outputGame does, without the console) and return its length
+   */
+  private static int renderLength(SportsGame _theGame) {
+    OUTPUT.setLength(0);
+    RENDERER.render(_theGame, OUTPUT);
+    return OUTPUT.length();
+  }
+
+  /**
+   * A football style game (4 intervals with overtime on a tie) for any number of teams
+   */
+  private static class OvertimeGame extends SportsGame {
+    OvertimeGame(int _teams) {
+      initGame("Benchmark", true, _teams, 4, "Quarter", true);
+    }
+  }
+}
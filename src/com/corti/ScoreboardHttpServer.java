@@ -0,0 +1,297 @@
+package com.corti;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class serves the scoreboards of the games in a GameRegistry over http (on the
+ * loopback address) so any number of viewers can watch a game without a console.
+ * <pre>
+ *   GET /games                 list of the games: [{"id":1,"sport":"Football","interval":"2nd Quarter"},...]
+ *   GET /games/{id}            full scoreboard as JSON (see GameCodec)
+ *   GET /games/{id}/updates    server sent events, a snapshot and then only what changes
+ * </pre>
+ * The updates stream starts with a 'snapshot' event (same JSON as /games/{id}) followed
+ * by these events as the game is scored:
+ * <pre>
+ *   event: cell       data: {"interval":1,"team":2,"value":7,"total":14}
+ *   event: interval   data: {"interval":3}
+ *   event: overtime   data: {"interval":5}
+ *   event: call       data: {"interval":2,"call":"ADVANTAGE","team":1,"other":2}   (tennis)
+ *   event: over       data: {"interval":4}                                          (stream ends)
+ * </pre>
+ * When an advance is undone viewers get a new 'snapshot' event.
+ * Cells carry the new value (not the points added) so a viewer can apply them more than
+ * once, or miss some, and still be right.
+ * <p>
+ * Each game has one feed subscribed to its events; the feed turns an event into the bytes
+ * we send once and hands the same bytes to every viewer of the game.  A viewer has its own
+ * queue and thread writing to it, when a viewer can't keep up its queue is dropped and it
+ * gets a fresh snapshot instead, so a slow viewer never holds up the game or other viewers.
+ */
+public class ScoreboardHttpServer {
+  private static final int VIEWER_QUEUE_SIZE = 1024;
+  private static final byte[] END_OF_GAME = new byte[0];      // Queued after the over event
+  private static final byte[] KEEP_ALIVE = ": keep-alive\n\n".getBytes(StandardCharsets.US_ASCII);
+  private static final ThreadLocal<GameCodec> CODEC = ThreadLocal.withInitial(GameCodec::new);
+
+  private final GameRegistry registry;
+  private final int port;
+  private final Map<Integer, GameFeed> feeds = new ConcurrentHashMap<>();
+  private HttpServer httpServer;
+  private ExecutorService handlers;
+
+  /**
+   * Constructor
+   *
+   * @param _registry Games to serve
+   * @param _port Port to listen on (loopback only), 0 picks a free one
+   */
+  public ScoreboardHttpServer(GameRegistry _registry, int _port) {
+    registry = _registry;
+    port = _port;
+  }
+
+  /**
+   * Start serving, this returns right away
+   *
+   * @throws IOException if we can't bind the port
+   */
+  public void start() throws IOException {
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 200);
+    handlers = GameServer.newSessionExecutor();
+    httpServer.setExecutor(handlers);
+    httpServer.createContext("/games", this::handle);
+    httpServer.start();
+  }
+
+  /**
+   * Return the port we're listening on
+   */
+  public int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  /**
+   * Stop serving, viewers that are connected are dropped
+   */
+  public void stop() {
+    httpServer.stop(0);
+    handlers.shutdownNow();
+  }
+
+  /**
+   * Work out which resource is wanted from the path
+   */
+  private void handle(HttpExchange _exchange) throws IOException {
+    try {
+      if (_exchange.getRequestMethod().equals("GET") == false) {
+        sendText(_exchange, 405, "Only GET is supported\n");
+        return;
+      }
+      String[] path = _exchange.getRequestURI().getPath().split("/");   // "", "games", id, "updates"
+      if (path.length < 2 || path[1].equals("games") == false) {
+        // The context matches anything starting with /games (i.e. /gamesx)
+        sendText(_exchange, 404, "Not found\n");
+        return;
+      }
+      if (path.length == 2) {
+        sendGames(_exchange);
+        return;
+      }
+      int gameId = parseNumber(path[2]);
+      SportsGame theGame = registry.getGame(gameId);
+      if (theGame == null || path.length > 4 || (path.length == 4 && path[3].equals("updates") == false)) {
+        sendText(_exchange, 404, "No such game\n");
+      } else if (path.length == 3) {
+        byte[] body = CODEC.get().toJson(theGame).getBytes(StandardCharsets.UTF_8);
+        _exchange.getResponseHeaders().set("Content-Type", "application/json");
+        _exchange.sendResponseHeaders(200, body.length);
+        _exchange.getResponseBody().write(body);
+      } else {
+        streamUpdates(_exchange, gameId, theGame);
+      }
+    } finally {
+      _exchange.close();
+    }
+  }
+
+  private void sendGames(HttpExchange _exchange) throws IOException {
+    StringBuilder json = new StringBuilder("[");
+    for (Map.Entry<Integer, SportsGame> entry : registry.getGames().entrySet()) {
+      if (json.length() > 1) json.append(',');
+      json.append("{\"id\":").append(entry.getKey())
+          .append(",\"sport\":\"").append(entry.getValue().getSportName())
+          .append("\",\"interval\":\"").append(entry.getValue().getCurrentIntervalText()).append("\"}");
+    }
+    byte[] body = json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    _exchange.getResponseHeaders().set("Content-Type", "application/json");
+    _exchange.sendResponseHeaders(200, body.length);
+    _exchange.getResponseBody().write(body);
+  }
+
+  private static void sendText(HttpExchange _exchange, int _status, String _text) throws IOException {
+    byte[] body = _text.getBytes(StandardCharsets.UTF_8);
+    _exchange.getResponseHeaders().set("Content-Type", "text/plain");
+    _exchange.sendResponseHeaders(_status, body.length);
+    _exchange.getResponseBody().write(body);
+  }
+
+  /**
+   * Send the snapshot and then whatever the game's feed hands us until the game is over
+   * or the viewer goes away.  The viewer joins the feed before the snapshot is taken so
+   * nothing can be missed in between (a cell that's in both is just applied twice).
+   */
+  private void streamUpdates(HttpExchange _exchange, int _gameId, SportsGame _theGame) throws IOException {
+    _exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+    _exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    _exchange.sendResponseHeaders(200, 0);
+    OutputStream out = _exchange.getResponseBody();
+
+    // A finished feed is replaced in case the game over was undone
+    GameFeed feed = feeds.compute(_gameId, (id, old) -> (old == null || old.finished ? new GameFeed(_theGame) : old));
+    Viewer viewer = new Viewer();
+    feed.viewers.add(viewer);
+    try {
+      out.write(snapshotEvent(_theGame));
+      if (feed.finished || _theGame.isGameOver()) {
+        out.write(message("over", "{\"interval\":" + _theGame.getCurrentInterval() + "}"));
+        return;
+      }
+      out.flush();
+      while (true) {
+        byte[] next = viewer.queue.poll(15, TimeUnit.SECONDS);
+        if (next == END_OF_GAME) {
+          // The over event was thrown away if we were behind, catch up and send it again
+          if (viewer.resync.getAndSet(false)) {
+            out.write(snapshotEvent(_theGame));
+            out.write(message("over", "{\"interval\":" + _theGame.getCurrentInterval() + "}"));
+          }
+          return;
+        }
+        if (viewer.resync.getAndSet(false)) {
+          out.write(snapshotEvent(_theGame));
+        } else {
+          out.write(next == null ? KEEP_ALIVE : next);
+        }
+        out.flush();
+      }
+    } catch (InterruptedException e) {
+      // Server is stopping
+    } finally {
+      feed.viewers.remove(viewer);
+    }
+  }
+
+  private static byte[] snapshotEvent(SportsGame _theGame) {
+    return message("snapshot", CODEC.get().toJson(_theGame));
+  }
+
+  private static byte[] message(String _event, String _data) {
+    return ("event: " + _event + "\ndata: " + _data + "\n\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int parseNumber(String _value) {
+    try {
+      return Integer.parseInt(_value);
+    } catch (NumberFormatException ne) {
+      return 0;
+    }
+  }
+
+  /**
+   * One viewer of a game, the feed puts messages on the queue and the viewer's http
+   * thread writes them
+   */
+  private static final class Viewer {
+    final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(VIEWER_QUEUE_SIZE);
+    final AtomicBoolean resync = new AtomicBoolean();   // Queue overflowed, send a snapshot
+
+    void send(byte[] _message) {
+      if (queue.offer(_message) == false) {
+        // Too far behind, throw away what's queued and catch up with a snapshot
+        queue.clear();
+        resync.set(true);
+        queue.offer(_message == END_OF_GAME ? END_OF_GAME : KEEP_ALIVE);
+      }
+    }
+  }
+
+  /**
+   * The one subscriber to a game's events, each event is turned into its message once
+   * and that's given to every viewer
+   */
+  private final class GameFeed implements Flow.Subscriber<GameEvent> {
+    private final SportsGame theGame;
+    final CopyOnWriteArrayList<Viewer> viewers = new CopyOnWriteArrayList<>();
+    volatile boolean finished;
+
+    GameFeed(SportsGame _theGame) {
+      theGame = _theGame;
+      theGame.events().subscribe(this);
+    }
+
+    public void onSubscribe(Flow.Subscription _subscription) {
+      _subscription.request(Long.MAX_VALUE);
+    }
+
+    public void onNext(GameEvent _event) {
+      byte[] message;
+      int interval = _event.getInterval();
+      switch (_event.getType()) {
+        case SCORE_ADDED:
+          // The cell's value and total now (events may have been coalesced so we don't add them up)
+          message = message("cell", "{\"interval\":" + interval + ",\"team\":" + _event.getTeamId()
+                            + ",\"value\":" + theGame.getScore(_event.getTeamId(), interval)
+                            + ",\"total\":" + theGame.runTotal(_event.getTeamId() - 1) + "}");
+          break;
+        case INTERVAL_ADVANCED:
+          message = message("interval", "{\"interval\":" + interval + "}");
+          break;
+        case OVERTIME_STARTED:
+          message = message("overtime", "{\"interval\":" + interval + "}");
+          break;
+        case GAME_OVER:
+          message = message("over", "{\"interval\":" + interval + "}");
+          break;
+        case CORRECTED:
+          // An interval was taken back, it's simplest for viewers to start again from a snapshot
+          message = snapshotEvent(theGame);
+          break;
+        default:
+          message = message("call", "{\"interval\":" + interval + ",\"call\":\"" + _event.getType()
+                            + "\",\"team\":" + _event.getTeamId() + ",\"other\":" + _event.getOtherTeamId() + "}");
+          break;
+      }
+      for (Viewer viewer : viewers) {
+        viewer.send(message);
+      }
+    }
+
+    public void onError(Throwable _error) {
+      onComplete();
+    }
+
+    public void onComplete() {
+      finished = true;
+      for (Viewer viewer : viewers) {
+        viewer.send(END_OF_GAME);
+      }
+    }
+  }
+}
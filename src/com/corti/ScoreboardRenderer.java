@@ -0,0 +1,163 @@
+package com.corti;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class builds the scoreboard table for a game (what outputGame shows) into a buffer
+ * that's reused from one render to the next, then writes it to the target in one go.
+ * The layout of each sport is in the game (see SportsGame.renderScoreboard), this class
+ * just has the methods to lay out columns without going through String.format.
+ * <p>
+ * A renderer isn't thread safe, each thread should use its own (outputGame keeps one per thread).
+ */
+public class ScoreboardRenderer {
+  private static final String NEW_LINE = System.lineSeparator();
+  private static final String SPACES = "                                        ";
+
+  private final StringBuilder buffer = new StringBuilder(1024);
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+  private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+  /**
+   * Render the game's scoreboard to the target passed in (i.e. a PrintStream, Writer or
+   * StringBuilder), the target gets a single append per render.
+   *
+   * @param _theGame Game to render
+   * @param _target Where to write it
+   */
+  public void render(SportsGame _theGame, Appendable _target) {
+    build(_theGame);
+    try {
+      _target.append(buffer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Render the game's scoreboard to a channel (i.e. a socket or file), written as utf-8
+   *
+   * @param _theGame Game to render
+   * @param _channel Where to write it
+   * @throws IOException if the write fails
+   */
+  public void render(SportsGame _theGame, WritableByteChannel _channel) throws IOException {
+    build(_theGame);
+    CharBuffer chars = CharBuffer.wrap(buffer);
+    encoder.reset();
+    bytes.clear();
+    while (true) {
+      CoderResult result = encoder.encode(chars, bytes, true);
+      if (result.isOverflow()) {
+        // Buffer too small for this scoreboard, write what we have and carry on
+        bytes.flip();
+        while (bytes.hasRemaining()) _channel.write(bytes);
+        bytes.clear();
+        if (bytes.capacity() < buffer.length() * 2) bytes = ByteBuffer.allocate(buffer.length() * 2);
+      } else {
+        break;
+      }
+    }
+    encoder.flush(bytes);
+    bytes.flip();
+    while (bytes.hasRemaining()) _channel.write(bytes);
+  }
+
+  /**
+   * Render the game's scoreboard and return it as a String
+   *
+   * @param _theGame Game to render
+   * @return String scoreboard
+   */
+  public String renderToString(SportsGame _theGame) {
+    build(_theGame);
+    return buffer.toString();
+  }
+
+  /**
+   * Clear the buffer and have the game lay out its scoreboard (from a snapshot) into it
+   */
+  private void build(SportsGame _theGame) {
+    buffer.setLength(0);
+    _theGame.renderScoreboard(this, _theGame.snapshot());
+  }
+
+  /**
+   * Append text as is
+   */
+  public ScoreboardRenderer text(CharSequence _text) {
+    buffer.append(_text);
+    return this;
+  }
+
+  /**
+   * Append the platform line separator (what %n gives you)
+   */
+  public ScoreboardRenderer newLine() {
+    buffer.append(NEW_LINE);
+    return this;
+  }
+
+  /**
+   * Append the number of spaces passed in
+   */
+  public ScoreboardRenderer spaces(int _count) {
+    while (_count > 0) {
+      int chunk = Math.min(_count, SPACES.length());
+      buffer.append(SPACES, 0, chunk);
+      _count -= chunk;
+    }
+    return this;
+  }
+
+  /**
+   * Append text right justified in the width passed in (same as %<width>s)
+   */
+  public ScoreboardRenderer right(CharSequence _text, int _width) {
+    spaces(_width - _text.length());
+    buffer.append(_text);
+    return this;
+  }
+
+  /**
+   * Append text left justified in the width passed in (same as %-<width>s)
+   */
+  public ScoreboardRenderer left(CharSequence _text, int _width) {
+    buffer.append(_text);
+    spaces(_width - _text.length());
+    return this;
+  }
+
+  /**
+   * Append a number right justified in the width passed in (same as %<width>d)
+   */
+  public ScoreboardRenderer right(int _number, int _width) {
+    spaces(_width - digits(_number));
+    buffer.append(_number);
+    return this;
+  }
+
+  /**
+   * Return the number of characters the number takes up (including a minus sign)
+   */
+  private static int digits(int _number) {
+    if (_number == Integer.MIN_VALUE) return 11;
+    int count = 1;
+    if (_number < 0) {
+      count++;
+      _number = -_number;
+    }
+    while (_number >= 10) {
+      _number /= 10;
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,112 @@
+package com.corti;
+
+/**
+ * This is a read only copy of a game's scoreboard at a point in time (see
+ * SportsGame.snapshot()), it has everything needed to show the game so a reader can
+ * render it without touching the live game (or locking it).
+ * <p>
+ * The rows for intervals that are over are shared between snapshots (they never change
+ * once the interval is over), only the current interval's row and the totals belong to
+ * a single snapshot.  Nothing a snapshot can see is ever modified after it's created
+ * (the game may add rows to the shared array past the ones this snapshot looks at).
+ */
+public final class ScoreboardSnapshot {
+  private final String sportName;
+  private final boolean teamSport;
+  private final int numberOfTeams;
+  private final int currentInterval;
+  private final String currentIntervalText;
+  private final boolean gameOver;
+  private final int[][] completedRows;   // Rows for intervals 1->currentInterval-1 (shared)
+  private final int[] currentRow;        // Scores for the current interval
+  private final int[] totals;            // Total for each team
+  private final int[] wins;              // Intervals won per team (tennis) or null
+
+  ScoreboardSnapshot(String _sportName, boolean _teamSport, int _numberOfTeams, int _currentInterval,
+                     String _currentIntervalText, boolean _gameOver, int[][] _completedRows,
+                     int[] _currentRow, int[] _totals, int[] _wins) {
+    sportName = _sportName;
+    teamSport = _teamSport;
+    numberOfTeams = _numberOfTeams;
+    currentInterval = _currentInterval;
+    currentIntervalText = _currentIntervalText;
+    gameOver = _gameOver;
+    completedRows = _completedRows;
+    currentRow = _currentRow;
+    totals = _totals;
+    wins = _wins;
+  }
+
+  public String getSportName() {
+    return sportName;
+  }
+
+  public boolean isATeamSport() {
+    return teamSport;
+  }
+
+  public int getNumberOfTeams() {
+    return numberOfTeams;
+  }
+
+  public int getCurrentInterval() {
+    return currentInterval;
+  }
+
+  /**
+   * Return the current interval text as the game showed it (i.e. '2nd Quarter' or 'Game over')
+   *
+   * @return String current interval text
+   */
+  public String getCurrentIntervalText() {
+    return currentIntervalText;
+  }
+
+  public boolean isGameOver() {
+    return gameOver;
+  }
+
+  /**
+   * Get score for Team and Interval (same as SportsGame.getScore)
+   *
+   * @param _teamId teamId (integer from 1->numberOfTeams)
+   * @param _interval interval you want score for (1->currentInterval)
+   * @return The score or Integer.MIN_VALUE if team/interval isn't valid
+   */
+  public int getScore(int _teamId, int _interval) {
+    if (_teamId > 0 && _teamId <= numberOfTeams && _interval > 0 && _interval <= currentInterval) {
+      if (_interval == currentInterval) return currentRow[_teamId - 1];
+      return completedRows[_interval - 1][_teamId - 1];
+    }
+    return Integer.MIN_VALUE;
+  }
+
+  /**
+   * Return total for the team passed in (0 offset like SportsGame.runTotal)
+   *
+   * @param _teamPosMinusOne team position (0 is team 1)
+   * @return int total score
+   */
+  public int runTotal(int _teamPosMinusOne) {
+    return totals[_teamPosMinusOne];
+  }
+
+  /**
+   * Return flag to identify if we have win counts (only sports like tennis do)
+   *
+   * @return boolean true if getWins can be called
+   */
+  public boolean hasWins() {
+    return (wins != null);
+  }
+
+  /**
+   * Return the number of intervals the team has won (tennis)
+   *
+   * @param _teamId teamId (integer from 1->numberOfTeams)
+   * @return int wins, 0 if the sport doesn't count wins
+   */
+  public int getWins(int _teamId) {
+    return (wins == null ? 0 : wins[_teamId - 1]);
+  }
+}
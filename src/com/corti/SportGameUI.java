@@ -2,7 +2,12 @@ package com.corti;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * This an abstract class, it has the attributes/methods associated with the user interface
@@ -20,8 +25,13 @@ import java.io.InputStreamReader;
  * Created by duffy_w530 on 3/8/2017.
  */
 public abstract class SportGameUI {
+  // Console input, shared with Main so nothing typed ahead is lost between readers
+  static final BufferedReader CONSOLE = new BufferedReader(new InputStreamReader(System.in));
+
   private SportsGame theSport;
   private boolean autoIncrement;
+  private PrintStream out = System.out;  // Where prompts/help go (console unless told otherwise)
+  private final CommandTokenizer tokenizer = new CommandTokenizer();
 
   /**
    * Disable default constructor
@@ -56,63 +66,70 @@ public abstract class SportGameUI {
     return autoIncrement;
   }
 
+  /**
+   * Return the game this ui is scoring
+   *
+   * @return SportsGame reference
+   */
+  public SportsGame getSport() {
+    return theSport;
+  }
+
+  /**
+   * Send prompts, help and scoreboards somewhere other than the console (i.e. a
+   * socket when the game is being scored through the GameServer)
+   *
+   * @param _out Stream to write to
+   */
+  public void setOutput(PrintStream _out) {
+    out = _out;
+  }
+
   /**
    * Show the help for the game to the console
    */
   public void help() {
-    System.out.println("\n\n\n\n");
-    System.out.format("%n%-18s%s", "Sport", theSport.getSportName());
+    out.println("\n\n\n\n");
+    out.format("%n%-18s%s", "Sport", theSport.getSportName());
     if (theSport.isATeamSport())
-      System.out.format("%n%-18s%d", "Teams available", theSport.getNumberOfTeams());
+      out.format("%n%-18s%d", "Teams available", theSport.getNumberOfTeams());
     else
-      System.out.format("%n%-18s%d", "Players", theSport.getNumberOfTeams());
+      out.format("%n%-18s%d", "Players", theSport.getNumberOfTeams());
 
-    System.out.format("%n%-18s%s%n%n", "Currently", theSport.getCurrentInterval());
-    System.out.println(scoringText());
+    out.format("%n%-18s%s%n%n", "Currently", theSport.getCurrentInterval());
+    out.println(scoringText());
     if (autoIntervalIncrement() == false) {
-      System.out.println("Enter + to advance to the next " + theSport.getIntervalName());
+      out.println("Enter + to advance to the next " + theSport.getIntervalName());
     }
-    System.out.println("Enter s to see current score");
-    System.out.println("Enter h to see this help");
-    System.out.println("Enter q to quit early :(");
-    System.out.println("\nEnter your request and hit enter >");
+    out.println("Enter s to see current score");
+    out.println("Enter u to undo the last thing entered");
+    out.println("Enter h to see this help");
+    out.println("Enter q to quit early :(");
+    out.println("\nEnter your request and hit enter >");
   }
 
   /**
-   * This method is called to process the team/points passed in; it's passed in as an
-   * array of string where pos 0 is the team identifier (an int), if user enters the
-   * score for this sport then pos 1 has the score.  If there's a problem with the data
-   * passed in we return a boolean false meaning we didn't process the data given
-   * to us.
+   * This method is called to process the team/points the tokenizer found; the first
+   * number is the team identifier, if user enters the score for this sport then there's
+   * a second number with the score.  If there's a problem with the data passed in we
+   * return a boolean false meaning we didn't process the data given to us.
    *
-   * @param requestArray Has the team and points (if game specifies that user enters points)
    * @return boolean indicating true if we processed the points
    */
-  private boolean processPoints(String[] requestArray) {
-    int team = 0, score = 0;
-
-    int arrayLen = requestArray.length;
+  private boolean processPoints() {
+    int numberCount = tokenizer.getNumberCount();
     boolean validProcess;
-    if (userEntersPoints()) validProcess = (arrayLen == 2);
-    else validProcess = (arrayLen == 1);
+    if (userEntersPoints()) validProcess = (numberCount == 2);
+    else validProcess = (numberCount == 1);
 
     if (validProcess) {
-      try {
-        team = Integer.parseInt(requestArray[0].trim());
-        if (arrayLen == 2) {
-          score = Integer.parseInt(requestArray[1].trim());
-        } else score = 1;
-      } catch (NumberFormatException ne) {
+      int team = tokenizer.getTeam();
+      int score = (numberCount == 2 ? tokenizer.getPoints() : 1);
+      if (team > 0 && team <= theSport.getNumberOfTeams()) {
+        theSport.addScore(team, score);
+      } else {
         validProcess = false;
       }
-
-      if (validProcess) {
-        if (team > 0 && team <= theSport.getNumberOfTeams()) {
-          theSport.addScore(team, score);
-        } else {
-          validProcess = false;
-        }
-      }
     }
     return validProcess;
   }
@@ -123,43 +140,142 @@ public abstract class SportGameUI {
    */
   public void scoreGame() {
     help();  // Start out and show help
-    BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-    boolean processed;
     while (theSport.isGameOver() == false) {
 
       try {
-        System.out.print(theSport.getCurrentIntervalText() + ">");
-        String str = br.readLine();
-        String[] requestSplit = str.trim().split("\\s+");
-        processed = true;
-        if (requestSplit.length == 1) {
-          if (requestSplit[0].equalsIgnoreCase("h")) help();
-          else if (requestSplit[0].equalsIgnoreCase("q")) theSport.quitGame();
-          else if (requestSplit[0].equals("+")) {  // Only advance if auto increment is off
-            if (autoIntervalIncrement() == false) {
-              theSport.advanceInterval();
-              if (theSport.isGameOver()) theSport.outputGame();
-            }
-          } else if (requestSplit[0].equalsIgnoreCase("s")) theSport.outputGame();
-          else {
-            processed = false;
-          }
-        } else processed = false;
-
-        if (processed == false) { // Didn't process above see if it's points
-          if (processPoints(requestSplit) == false) {
-            System.out.println("Invalid request, hit letter h for help");
-          }
+        out.print(theSport.getCurrentIntervalText() + ">");
+        String str = CONSOLE.readLine();
+        if (str == null) {
+          theSport.quitGame();  // Nothing more to read, treat it like a quit
+        } else {
+          processRequest(str);
         }
       } catch (IOException e) {
         e.printStackTrace();
       }
-      // See if some condition caused the interval to end; if so we'll advance to next one
-      // or it'll trigger end of game
-      if (theSport.isIntervalOver(theSport.getCurrentInterval())) {
-        theSport.advanceInterval();
+    }
+  }
+
+  /**
+   * Score the game from a script (i.e. a recorded scoring session), each line is a
+   * request just like the user would type it.  We stop at the end of the script or when
+   * the game is over.  The script is read in blocks and each line is handed to the
+   * tokenizer straight from the block so no strings are created.
+   *
+   * @param _script Stream to read the script from
+   * @throws IOException if the script can't be read
+   */
+  public void scoreScript(InputStream _script) throws IOException {
+    byte[] buffer = new byte[65536];
+    int start = 0, end = 0;
+    boolean endOfScript = false;
+    while (theSport.isGameOver() == false) {
+      int lineEnd = start;
+      while (lineEnd < end && buffer[lineEnd] != '\n') lineEnd++;
+      if (lineEnd == end && endOfScript == false) {
+        // Don't have a whole line, move what we have to the front and read more
+        if (start == 0 && end == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else {
+          System.arraycopy(buffer, start, buffer, 0, end - start);
+          end -= start;
+          start = 0;
+        }
+        int read = _script.read(buffer, end, buffer.length - end);
+        if (read < 0) endOfScript = true;
+        else end += read;
+        continue;
       }
+      if (start == end) break;   // End of script
+      processRequest(buffer, start, lineEnd);
+      start = Math.min(lineEnd + 1, end);
+    }
+  }
+
+  /**
+   * Score the game from a script file (see scoreScript(InputStream))
+   *
+   * @param _script Path of the script
+   * @throws IOException if the script can't be read
+   */
+  public void scoreScript(Path _script) throws IOException {
+    try (InputStream in = Files.newInputStream(_script)) {
+      scoreScript(in);
+    }
+  }
+
+  /**
+   * Process one line of user input (i.e. 'h', 'q', '+', 's' or team/points); this is
+   * what scoreGame calls for each line it reads, it's public so that input that doesn't
+   * come from the console (i.e. the GameServer) is handled exactly the same way.
+   *
+   * @param _request The line the user entered
+   * @return boolean true if the request was valid
+   */
+  public boolean processRequest(String _request) {
+    return processCommand(tokenizer.parse(_request));
+  }
+
+  /**
+   * Process one line of input held in a byte array (see processRequest(String))
+   *
+   * @param _buffer Bytes holding the line
+   * @param _start Position of the first byte
+   * @param _end Position after the last byte
+   * @return boolean true if the request was valid
+   */
+  public boolean processRequest(byte[] _buffer, int _start, int _end) {
+    return processCommand(tokenizer.parse(_buffer, _start, _end));
+  }
+
+  /**
+   * Act on the command the tokenizer found
+   */
+  private boolean processCommand(int _command) {
+    boolean processed = true;
+    if (GameMetrics.enabled) GameMetrics.METRICS.requests.increment();
+    switch (_command) {
+      case CommandTokenizer.HELP:
+        help();
+        break;
+      case CommandTokenizer.QUIT:
+        theSport.quitGame();
+        break;
+      case CommandTokenizer.ADVANCE:  // Only advance if auto increment is off
+        if (autoIntervalIncrement() == false) {
+          // Another session may have advanced the interval since we looked, only one advance happens
+          if (theSport.advanceIntervalFrom(theSport.getCurrentInterval()) && theSport.isGameOver()) theSport.outputGame(out);
+        }
+        break;
+      case CommandTokenizer.SHOW:
+        theSport.outputGame(out);
+        break;
+      case CommandTokenizer.UNDO:
+        if (theSport.undo()) {
+          // When the interval advanced on its own the point that ended it goes too, otherwise
+          // we'd just advance again
+          if (autoIntervalIncrement() && theSport.isIntervalOver(theSport.getCurrentInterval())) theSport.undo();
+          out.println("Undone, now in " + theSport.getCurrentIntervalText());
+        } else {
+          out.println("Nothing to undo");
+        }
+        return true;
+      default:
+        processed = (_command == CommandTokenizer.NUMBERS && processPoints());
+        if (processed == false) {
+          out.println("Invalid request, hit letter h for help");
+          if (GameMetrics.enabled) GameMetrics.METRICS.rejectedRequests.increment();
+        }
+        break;
+    }
+
+    // See if some condition caused the interval to end; if so we'll advance to next one
+    // or it'll trigger end of game
+    int interval = theSport.getCurrentInterval();
+    if (theSport.isIntervalOver(interval)) {
+      if (theSport.advanceIntervalFrom(interval) && theSport.isGameOver()) theSport.outputGame(out);
     }
+    return processed;
   }
 
   /**
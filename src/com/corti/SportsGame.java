@@ -3,9 +3,11 @@
  */
 package com.corti;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This abstract class supports common code for scoring sporting games, every sport
@@ -14,33 +16,133 @@ import java.util.List;
  *
  * Note: if wondering why this has outputGame instead of having that in the ui class; it's
  * because that's not related to user input (although can see an argument for it :))
+ *
+ * A game can be switched into concurrent scoring (see enableConcurrentScoring) when more
+ * than one scorekeeper posts points to it at the same time.
+ *
+ * Anyone that wants to know when the game changes can subscribe to events() rather than
+ * polling it.
+ *
+ * The last operations (points, advances, quitting) can be taken back with undo, see undo
+ * for how that works.
  */
 
 public abstract class SportsGame {
+  // Used to update a single score cell atomically when concurrent scoring is on
+  private static final VarHandle SCORE_CELL = MethodHandles.arrayElementVarHandle(int[].class);
+
   private String sportName;               // Name of the sport
   private boolean teamSport;              // Boolean for team or individual sport
   private int numberOfTeams;              // Number of teams involved in game (usually 2)
   private int numberOfIntervals;          // Number of intervals (i.e. 4 for football)
   private String intervalName;            // What each interval is called (i.e. period)
   private boolean overtimeAllowed;        // Does sport have overtime/extended time?
-  private int currentInterval;            // Keeps track of current interval
-  private boolean gameOver;               // Boolean when game over
-  private List<Integer[]> intervalScores; // List containing overtime scores
+  private volatile int currentInterval;   // Keeps track of current interval
+  private volatile boolean gameOver;      // Boolean when game over
+  private int[] intervalScores;           // Scores, interval-major (row per interval, column per team)
+  private int intervalCapacity;           // Number of interval rows intervalScores can hold
+  private int[] teamTotals;               // Running total for each team (0 offset)
+  private boolean leaderStale;            // Set when a score changes, leader/tie need recalculating
+  private int leaderTeamId;               // Team with the highest total (0 when there's a tie)
   private boolean quitGame;               // Quit the game
+  private StampedLock scoringLock;        // Only set when concurrent scoring is enabled
+  private GameEventLog eventLog;          // When set our events are logged to it
+  private volatile int[][] completedRows; // Copy of each interval that's over (rows never change once added)
+  private volatile int[] completedTotals; // Team totals for the intervals in completedRows
+  private ScoreboardSnapshot lastSnapshot;// Snapshot we handed out last (only kept when not concurrent)
+  private volatile String[] intervalLabels;// Cache of getInterval text (index is the interval)
+  private String scoreboardHeader;        // Team heading lines for outputGame, built the first time
+
+  // Each thread that outputs a game reuses its own renderer
+  private static final ThreadLocal<ScoreboardRenderer> RENDERER = ThreadLocal.withInitial(ScoreboardRenderer::new);
+  private int eventGameId;                // Id of this game in the event log
+  private volatile GameEventPublisher publisher;  // Created when someone asks for events()
+  private volatile GameStats stats;       // Created when someone asks for stats()
+
+  // Undo ring, each operation is packed in a long (see undoRecord); top only goes up when
+  // an operation is recorded and down when one is undone
+  private static final int DEFAULT_UNDO_DEPTH = 128;
+  private static final int MAX_LATE_INTERVAL = 0x7FFF;   // Late scores are logged as interval and points in one int
+  private static final int MAX_LATE_POINTS = 0xFFFF;     // ...the points are the difference between two shorts
+  private static final int UNDO_SCORE = 1;
+  private static final int UNDO_ADVANCE = 2;
+  private static final int UNDO_QUIT = 3;
+  private static final int UNDO_LATE_SCORE = 4;      // Points for an interval, packed its own way (see lateScoreRecord)
+  private static final int UNDO_WAS_OVER = 1;        // Flags for an advance/quit: game was over before it
+  private static final int UNDO_WAS_QUIT = 2;        // ...game had been quit before it
+  private static final int UNDO_ADDED_INTERVAL = 4;  // ...the advance added an interval
+  private long[] undoRing = new long[DEFAULT_UNDO_DEPTH];
+  private final AtomicLong undoTop = new AtomicLong();   // Index of the next operation
+  private long undoFloor;                 // Operations below this are gone (overwritten or cleared)
+  private final Object undoLogLock = new Object();  // Concurrent scorers push undo and log together under it
+  private final Object republishLock = new Object(); // Late scores republish finished rows one at a time
 
   /**
    * This adds an interval (i.e. a quarter in a football game, it also initializes
    * all the scores for that interval to 0.  It also updates the currentInterval by 1
    */
   private void addInterval() {
-    Integer[] interval = new Integer[numberOfTeams];
-    for (int i = 0; i < numberOfTeams; i++) {
-      interval[i] = 0;
+    if (currentInterval >= intervalCapacity) {
+      growIntervals();
+    }
+    if (currentInterval > 0) {
+      completeInterval();
     }
-    intervalScores.add(interval);
     currentInterval++;
   }
 
+  /**
+   * Publish the interval that just ended for snapshots; the row is copied and never
+   * changed after that.  Rows are only ever added past the ones a snapshot can see
+   * (a snapshot only looks at rows before its current interval) so the array is shared,
+   * when it's full we copy the references into a bigger one.  The totals are small so
+   * they're a new array each time.
+   */
+  private void completeInterval() {
+    int[][] rows = completedRows;
+    int completed = currentInterval - 1;   // Rows already published
+    if (completed >= rows.length || rows[completed] != null) {
+      // Bigger, or the slot was used before an advance was undone (snapshots may still see it)
+      int[][] newRows = new int[Math.max(completed >= rows.length ? rows.length * 2 : rows.length, numberOfIntervals)][];
+      System.arraycopy(rows, 0, newRows, 0, completed);
+      rows = newRows;
+    }
+    int[] row = new int[numberOfTeams];
+    int[] newTotals = new int[numberOfTeams];
+    for (int i = 0; i < numberOfTeams; i++) {
+      row[i] = intervalScores[scorePos(currentInterval, i + 1)];
+      newTotals[i] = completedTotals[i] + row[i];
+    }
+    rows[completed] = row;
+    completedRows = rows;
+    completedTotals = newTotals;
+  }
+
+  /**
+   * Grow the score matrix when we go past the intervals we've allocated for (that only
+   * happens in overtime); we double the capacity so a long overtime doesn't copy the
+   * matrix on every interval.  New rows are already 0 since java zero fills arrays.
+   */
+  private void growIntervals() {
+    int newCapacity = Math.max(intervalCapacity * 2, 1);
+    int[] newScores = new int[newCapacity * numberOfTeams];
+    System.arraycopy(intervalScores, 0, newScores, 0, intervalCapacity * numberOfTeams);
+    intervalScores = newScores;
+    intervalCapacity = newCapacity;
+  }
+
+  /**
+   * Return the position in the score matrix for the interval/team passed in, both are
+   * 1 offset (i.e. interval 1, team 1 is position 0)
+   *
+   * @param _interval interval (1->currentInterval)
+   * @param _teamId teamId (1->numberOfTeams)
+   * @return int position within intervalScores
+   */
+  private int scorePos(int _interval, int _teamId) {
+    return (_interval - 1) * numberOfTeams + (_teamId - 1);
+  }
+
   /**
    * Add the score passed in for the associated team
    *
@@ -48,21 +150,440 @@ public abstract class SportsGame {
    * @param _score  score
    */
   public void addScore(int _teamId, int _score) {
+    if (GameMetrics.enabled) GameMetrics.METRICS.addScoreCalls.increment();
     if (_teamId > 0 && _teamId <= numberOfTeams) {
-      // Arrays are 0 offset so decrement by 1
-      intervalScores.get(currentInterval - 1)[_teamId - 1] += _score;
+      long logged = 0;
+      if (scoringLock == null) {
+        logged = applyScore(_teamId, _score);
+      } else {
+        // Scorers share the lock (so they run together), it only keeps them out while
+        // an interval is being advanced; the cells themselves are updated atomically.
+        long stamp = scoringLock.readLock();
+        try {
+          int interval = currentInterval;
+          SCORE_CELL.getAndAdd(intervalScores, scorePos(interval, _teamId), _score);
+          int total = (int) SCORE_CELL.getAndAdd(teamTotals, _teamId - 1, _score) + _score;
+          leaderStale = true;
+          if (hasEventSubscribers()) {
+            publisher.publish(new GameEvent(GameEvent.Type.SCORE_ADDED, interval, _teamId, 0, _score, total));
+          }
+          GameStats gameStats = stats;
+          if (gameStats != null) gameStats.scored(_teamId, interval, _score);
+          scoreChanged(_teamId, interval);
+          // Logged while we hold the lock so it can't end up after an advance it preceded.
+          // The undo ring and the log have to get scores in the same order (replay rebuilds
+          // the ring from the log, so an undo has to take off the same score) so the two
+          // are done as one step.
+          if (eventLog == null) {
+            recordUndo(undoRecord(UNDO_SCORE, _teamId, _score, 0));
+          } else {
+            synchronized (undoLogLock) {
+              recordUndo(undoRecord(UNDO_SCORE, _teamId, _score, 0));
+              logged = eventLog.logScore(eventGameId, _teamId, _score);
+            }
+          }
+        } finally {
+          scoringLock.unlockRead(stamp);
+        }
+      }
+      awaitReplication(logged);
+    }
+  }
+
+  /**
+   * Add the score for a team that's already been validated, this is the single threaded
+   * path (the caller either isn't concurrent or holds the write lock)
+   *
+   * @return long replication sequence of the logged score (see awaitReplication)
+   */
+  private long applyScore(int _teamId, int _score) {
+    changeScore(_teamId, currentInterval, _score);
+    recordUndo(undoRecord(UNDO_SCORE, _teamId, _score, 0));
+    return (eventLog == null ? 0 : eventLog.logScore(eventGameId, _teamId, _score));
+  }
+
+  /**
+   * With synchronous replication wait for the standby to have what we logged; callers do
+   * this after they let go of the scoring lock so a slow standby holds up this caller and
+   * not everyone else scoring the game
+   *
+   * @param _sequence What the event log returned (0 for nothing to wait for)
+   */
+  private void awaitReplication(long _sequence) {
+    if (_sequence > 0) eventLog.awaitReplication(_sequence);
+  }
+
+  /**
+   * Change a team's score in an interval, normally the current one (single threaded, see
+   * applyScore); a finished interval has its row published again for snapshots.
+   */
+  private void changeScore(int _teamId, int _interval, int _score) {
+    intervalScores[scorePos(_interval, _teamId)] += _score;
+    teamTotals[_teamId - 1] += _score;
+    if (_interval < currentInterval) republishInterval(_interval);
+    leaderStale = true;
+    lastSnapshot = null;
+    if (hasEventSubscribers()) {
+      publisher.publish(new GameEvent(GameEvent.Type.SCORE_ADDED, _interval, _teamId, 0, _score, teamTotals[_teamId - 1]));
+    }
+    GameStats gameStats = stats;
+    if (gameStats != null) gameStats.scored(_teamId, _interval, _score);
+    scoreChanged(_teamId, _interval);
+  }
+
+  /**
+   * A finished interval's score changed (a late score), snapshots share the rows so the
+   * row is replaced rather than changed and the array is copied so the snapshots already
+   * handed out keep the rows they had.  Late scores come in together (see setIntervalScore)
+   * so they take turns here, each one copies the row as it is by then.
+   */
+  private void republishInterval(int _interval) {
+    synchronized (republishLock) {
+      int[][] rows = completedRows.clone();
+      int[] row = new int[numberOfTeams];
+      int[] newTotals = completedTotals.clone();
+      for (int i = 0; i < numberOfTeams; i++) {
+        row[i] = (int) SCORE_CELL.getVolatile(intervalScores, scorePos(_interval, i + 1));
+        newTotals[i] += row[i] - rows[_interval - 1][i];
+      }
+      rows[_interval - 1] = row;
+      completedRows = rows;
+      completedTotals = newTotals;
+    }
+  }
+
+  /**
+   * Set a team's score for an interval that's already been played or the current one, for
+   * sports where the teams aren't all on the same interval (i.e. golf, a player's score
+   * for a hole is posted after the game has moved on).  It's applied as the points that
+   * make the difference so it's logged, replicated, can be undone and is in the snapshots.
+   * With concurrent scoring it shares the scoring lock like addScore, so many late scores
+   * (and scorers) go in at once; the cell is swapped atomically so two scores for the same
+   * cell end up as the last one.  Sports that count wins (tennis) don't use it, their cached
+   * wins assume finished intervals don't change.
+   *
+   * @param _teamId teamId (1->numberOfTeams)
+   * @param _interval Interval (1->currentInterval), at most 32767
+   * @param _score The team's score for the interval, it (and the score it replaces) has to
+   *               fit in a short so the difference fits in one log record with the interval
+   * @return boolean false if the team, interval or score isn't valid
+   */
+  protected boolean setIntervalScore(int _teamId, int _interval, int _score) {
+    if (_teamId < 1 || _teamId > numberOfTeams || _interval > MAX_LATE_INTERVAL
+        || _score < Short.MIN_VALUE || _score > Short.MAX_VALUE) {
+      return false;
+    }
+    long logged = 0;
+    long stamp = (scoringLock == null ? 0L : scoringLock.readLock());
+    try {
+      if (_interval < 1 || _interval > currentInterval) return false;
+      int pos = scorePos(_interval, _teamId);
+      int old;
+      do {
+        old = (int) SCORE_CELL.getVolatile(intervalScores, pos);
+        if (old < Short.MIN_VALUE || old > Short.MAX_VALUE) return false;
+        if (old == _score) return true;
+      } while (SCORE_CELL.compareAndSet(intervalScores, pos, old, _score) == false);
+      logged = lateScored(_teamId, _interval, _score - old);
+      return true;
+    } finally {
+      if (scoringLock != null) scoringLock.unlockRead(stamp);
+      awaitReplication(logged);
+    }
+  }
+
+  /**
+   * Add points to a team's score for an interval that's been played (or the current one),
+   * this is how the event log replays setIntervalScore
+   *
+   * @return boolean false if the team or interval isn't valid
+   */
+  boolean addIntervalScore(int _teamId, int _interval, int _points) {
+    if (_teamId < 1 || _teamId > numberOfTeams || _interval > MAX_LATE_INTERVAL
+        || _points < -MAX_LATE_POINTS || _points > MAX_LATE_POINTS) {
+      return false;
+    }
+    long logged = 0;
+    long stamp = (scoringLock == null ? 0L : scoringLock.readLock());
+    try {
+      if (_interval < 1 || _interval > currentInterval) return false;
+      SCORE_CELL.getAndAdd(intervalScores, scorePos(_interval, _teamId), _points);
+      logged = lateScored(_teamId, _interval, _points);
+      return true;
+    } finally {
+      if (scoringLock != null) scoringLock.unlockRead(stamp);
+      awaitReplication(logged);
+    }
+  }
+
+  /**
+   * The rest of a late score once its cell has changed by the points passed in (the
+   * scoring lock is shared, if there is one).  The undo record holds the points rather
+   * than the score it replaced, so it comes off right whatever order scores for the cell
+   * landed in the ring; the undo and the log are done together as in addScore.
+   *
+   * @return long replication sequence of the logged score (see awaitReplication)
+   */
+  private long lateScored(int _teamId, int _interval, int _points) {
+    int total = (int) SCORE_CELL.getAndAdd(teamTotals, _teamId - 1, _points) + _points;
+    if (_interval < currentInterval) republishInterval(_interval);
+    leaderStale = true;
+    if (scoringLock == null) lastSnapshot = null;
+    if (hasEventSubscribers()) {
+      publisher.publish(new GameEvent(GameEvent.Type.SCORE_ADDED, _interval, _teamId, 0, _points, total));
+    }
+    GameStats gameStats = stats;
+    if (gameStats != null) gameStats.scored(_teamId, _interval, _points);
+    scoreChanged(_teamId, _interval);
+    synchronized (undoLogLock) {
+      recordUndo(lateScoreRecord(_teamId, _interval, _points));
+      return (eventLog == null ? 0 : eventLog.logIntervalScore(eventGameId, _teamId, _interval, _points));
     }
   }
 
+  /**
+   * Apply a batch of scoring records in one pass; each record is either points for a
+   * team or an advance to the next interval (see ScoreBatch).  With concurrent scoring
+   * the whole batch is applied under the write lock once rather than locking per record.
+   * The outcome of each record is set in the batch, records after the game ends are
+   * rejected.
+   *
+   * @param _batch Records to apply
+   * @param _autoAdvance true if the interval advances on its own when it's over (i.e. tennis),
+   *                     same as the ui's autoIntervalIncrement
+   * @return int number of records applied (points added or interval advanced)
+   */
+  public int applyBatch(ScoreBatch _batch, boolean _autoAdvance) {
+    int applied = 0;
+    long logged = 0;                      // Sequences only go up, the last one covers the batch
+    long stamp = (scoringLock == null ? 0L : scoringLock.writeLock());
+    try {
+      int size = _batch.size();
+      for (int record = 0; record < size; record++) {
+        byte outcome;
+        if (gameOver) {
+          outcome = ScoreBatch.OUTCOME_GAME_OVER;
+        } else if (_batch.isAdvance(record)) {
+          logged = Math.max(logged, stepInterval());
+          outcome = ScoreBatch.OUTCOME_ADVANCED;
+        } else {
+          int teamId = _batch.getTeam(record);
+          if (teamId > 0 && teamId <= numberOfTeams) {
+            logged = Math.max(logged, applyScore(teamId, _batch.getPoints(record)));
+            outcome = ScoreBatch.OUTCOME_APPLIED;
+            // Only a score can end an interval on its own, so that's the only time we check
+            if (_autoAdvance && isIntervalOver(currentInterval)) logged = Math.max(logged, stepInterval());
+          } else {
+            outcome = ScoreBatch.OUTCOME_INVALID_TEAM;
+          }
+        }
+        if (outcome == ScoreBatch.OUTCOME_APPLIED || outcome == ScoreBatch.OUTCOME_ADVANCED) applied++;
+        _batch.setOutcome(record, outcome);
+      }
+    } finally {
+      if (scoringLock != null) scoringLock.unlockWrite(stamp);
+      awaitReplication(logged);
+    }
+    if (GameMetrics.enabled) GameMetrics.METRICS.batchRecords.add(_batch.size());
+    return applied;
+  }
+
+  /**
+   * Called by addScore after a team's score changed in the interval passed in, sports
+   * that keep track of things as points are scored (i.e. tennis) override this.  With
+   * concurrent scoring it's called while the scoring lock is shared, so several scorers
+   * can be in here at once (but never while the interval is being advanced).
+   *
+   * @param _teamId teamId (1->numberOfTeams)
+   * @param _interval interval the score changed in
+   */
+  protected void scoreChanged(int _teamId, int _interval) {
+  }
+
   /**
    * This method is called when we want to advance to the next interval, it will
-   * call the checkGameOver method since that can only occur when an interval advances
+   * call the checkGameOver method since that can only occur when an interval advances.
+   * It doesn't show the game when it ends, that's up to whoever is scoring it (the ui).
    */
   public void advanceInterval() {
+    long logged;
+    if (scoringLock == null) {
+      logged = stepInterval();
+    } else {
+      long stamp = scoringLock.writeLock();
+      try {
+        logged = stepInterval();
+      } finally {
+        scoringLock.unlockWrite(stamp);
+      }
+    }
+    awaitReplication(logged);
+  }
+
+  /**
+   * Advance the interval only if we're still on the interval passed in; this is what
+   * a scorer should use when it decides an interval is over (i.e. tennis) since with
+   * concurrent scoring two scorers can see the same game end and we only want one
+   * advance to happen.
+   *
+   * @param _interval The interval the caller believes is over
+   * @return boolean true if this call advanced the interval (or ended the game)
+   */
+  public boolean advanceIntervalFrom(int _interval) {
+    boolean advanced = false;
+    long logged = 0;
+    long stamp = (scoringLock == null ? 0L : scoringLock.writeLock());
+    try {
+      if (currentInterval == _interval && gameOver == false) {
+        logged = stepInterval();
+        advanced = true;
+      }
+    } finally {
+      if (scoringLock != null) scoringLock.unlockWrite(stamp);
+      awaitReplication(logged);
+    }
+    return advanced;
+  }
+
+  /**
+   * Check for game over and move to the next interval if it isn't, when concurrent scoring
+   * is on the caller must hold the write lock.
+   *
+   * @return long replication sequence of the logged advance (see awaitReplication)
+   */
+  private long stepInterval() {
+    lastSnapshot = null;
+    long logged = (eventLog == null ? 0 : eventLog.logAdvance(eventGameId));
+    boolean wasOver = gameOver;
     this.checkGameOver();
-    if (this.isGameOver()) {
-      outputGame();
-    } else addInterval();
+    if (this.isGameOver() == false) {
+      addInterval();
+      if (stats != null) stats.intervalChanged(currentInterval);
+    }
+    recordUndo(undoRecord(UNDO_ADVANCE, 0, 0, (wasOver ? UNDO_WAS_OVER : 0) | (quitGame ? UNDO_WAS_QUIT : 0)
+                                              | (gameOver ? 0 : UNDO_ADDED_INTERVAL)));
+    if (GameMetrics.enabled) {
+      GameMetrics.METRICS.intervalAdvances.increment();
+      if (gameOver) GameMetrics.METRICS.gamesOver.increment();
+      else if (currentInterval == numberOfIntervals + 1) GameMetrics.METRICS.overtimeEntries.increment();
+    }
+    if (hasEventSubscribers()) {
+      if (gameOver) {
+        publishEvent(GameEvent.Type.GAME_OVER, currentInterval, 0, 0);
+      } else {
+        publishEvent(GameEvent.Type.INTERVAL_ADVANCED, currentInterval, 0, 0);
+        if (currentInterval == numberOfIntervals + 1) publishEvent(GameEvent.Type.OVERTIME_STARTED, currentInterval, 0, 0);
+      }
+    }
+    return logged;
+  }
+
+  /**
+   * Return the publisher for this game's events (scores, advances, overtime, game over and
+   * whatever the sport adds) so displays can subscribe instead of polling.  Events are
+   * only created while someone is subscribed.
+   *
+   * @return GameEventPublisher for this game
+   */
+  public GameEventPublisher events() {
+    GameEventPublisher events = publisher;
+    if (events == null) {
+      synchronized (this) {
+        if (publisher == null) publisher = new GameEventPublisher(this);
+        events = publisher;
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Return the running statistics for this game (runs, leads, lead changes, points per
+   * interval and the tennis counts, see GameStats), they're kept from the first time this
+   * is called so ask before scoring starts to have them for the whole game
+   *
+   * @return GameStats for this game
+   */
+  public GameStats stats() {
+    GameStats gameStats = stats;
+    if (gameStats == null) {
+      synchronized (this) {
+        if (stats == null) {
+          long stamp = (scoringLock == null ? 0L : scoringLock.writeLock());
+          try {
+            gameStats = createStats();
+            gameStats.seed(this);
+            stats = gameStats;
+          } finally {
+            if (scoringLock != null) scoringLock.unlockWrite(stamp);
+          }
+        }
+        gameStats = stats;
+      }
+    }
+    return gameStats;
+  }
+
+  /**
+   * Create the statistics kept for this sport (tennis counts its pairs separately)
+   */
+  protected GameStats createStats() {
+    return new GameStats(numberOfTeams, numberOfIntervals, false);
+  }
+
+  /**
+   * Return indicator if anyone is subscribed to our events, check this before working
+   * out an event so it costs nothing when nobody is listening
+   */
+  protected boolean hasEventSubscribers() {
+    GameEventPublisher events = publisher;
+    return (events != null && events.hasSubscribers());
+  }
+
+  /**
+   * Publish an event that isn't a score (sports use this for their own events, i.e. the
+   * tennis calls), should be called while the game is being changed so the event is in
+   * order with the others
+   *
+   * @param _type Event type
+   * @param _interval Interval it happened in
+   * @param _teamId Team it's about (0 if none)
+   * @param _otherTeamId Other team it's about (0 if none)
+   */
+  protected void publishEvent(GameEvent.Type _type, int _interval, int _teamId, int _otherTeamId) {
+    GameEventPublisher events = publisher;
+    if (events != null) events.publish(new GameEvent(_type, _interval, _teamId, _otherTeamId, 0, 0));
+  }
+
+  /**
+   * Log every event for this game (points, interval advances and quitting) to the log
+   * passed in so the game can be rebuilt by replaying it (see GameEventLog)
+   *
+   * @param _eventLog The log
+   * @param _gameId Id of this game in the log
+   */
+  public void attachEventLog(GameEventLog _eventLog, int _gameId) {
+    eventLog = _eventLog;
+    eventGameId = _gameId;
+  }
+
+  /**
+   * Turn on concurrent scoring, after this addScore can be called from many threads at
+   * once without losing points, interval advances are exclusive and readers (getScore,
+   * runTotal etc..) never block.  Call this before the game is handed to other threads.
+   */
+  public void enableConcurrentScoring() {
+    if (scoringLock == null) {
+      scoringLock = new StampedLock();
+    }
+  }
+
+  /**
+   * Return indicator if concurrent scoring is on
+   *
+   * @return boolean true if enableConcurrentScoring has been called
+   */
+  public boolean isConcurrentScoring() {
+    return (scoringLock != null);
   }
 
   /**
@@ -73,17 +594,31 @@ public abstract class SportsGame {
    * added that gameOver is set if we're told to quit the game
    */
   private void checkGameOver() {
-    gameOver = false;
+    // Work it out locally so a reader never sees gameOver flip back and forth
+    boolean over = false;
     if (currentInterval >= numberOfIntervals) {
-      gameOver = true;
+      over = true;
       if (inATie() && overtimeAllowed) {
-        gameOver = false;
+        over = false;
       }
     }
-    gameOver = (quitGame ? true : gameOver);
+    if (isGameDecided(currentInterval)) over = true;
+    gameOver = (quitGame ? true : over);
     return;
   }
 
+  /**
+   * Return boolean to indicate the game has been won before the last interval (i.e. the
+   * first to win 3 sets), sports where that can happen override this.  It's called as
+   * each interval ends.
+   *
+   * @param _interval The interval that just ended
+   * @return boolean true if the game is over, defaults to false
+   */
+  protected boolean isGameDecided(int _interval) {
+    return false;
+  }
+
   /**
    * This method returns the current interval (as int)
    *
@@ -114,6 +649,28 @@ public abstract class SportsGame {
    * @return String Human readable interval :)
    */
   public String getInterval(int _interval) {
+    // Labels never change so we build each one once and keep it
+    String[] labels = intervalLabels;
+    if (_interval >= 0 && _interval < labels.length && labels[_interval] != null) {
+      return labels[_interval];
+    }
+    String label = buildInterval(_interval);
+    if (_interval >= 0) {
+      if (_interval >= labels.length) {
+        String[] newLabels = new String[Math.max(labels.length * 2, _interval + 1)];
+        System.arraycopy(labels, 0, newLabels, 0, labels.length);
+        labels = newLabels;
+      }
+      labels[_interval] = label;
+      intervalLabels = labels;
+    }
+    return label;
+  }
+
+  /**
+   * Build the text for getInterval
+   */
+  private String buildInterval(int _interval) {
     String temp;
     switch (_interval) {
       case 1:
@@ -152,6 +709,24 @@ public abstract class SportsGame {
     return numberOfTeams;
   }
 
+  /**
+   * Return the number of intervals in regulation (i.e. 4 quarters for football)
+   *
+   * @return int numberOfIntervals
+   */
+  public int getNumberOfIntervals() {
+    return numberOfIntervals;
+  }
+
+  /**
+   * Return indicator if the sport goes into overtime on a tie
+   *
+   * @return boolean overtimeAllowed
+   */
+  public boolean isOvertimeAllowed() {
+    return overtimeAllowed;
+  }
+
   /**
    * Get score for Team and Interval
    *
@@ -161,7 +736,12 @@ public abstract class SportsGame {
    */
   public int getScore(int _teamId, int _interval) {
     if (_teamId > 0 && _teamId <= numberOfTeams && _interval > 0 && _interval <= currentInterval) {
-      return intervalScores.get(_interval - 1)[_teamId - 1];
+      if (scoringLock == null) {
+        return intervalScores[scorePos(_interval, _teamId)];
+      }
+      // currentInterval is read first (volatile) so we're guaranteed to see a matrix that
+      // holds that interval, even if it was grown by another thread
+      return (int) SCORE_CELL.getVolatile(intervalScores, scorePos(_interval, _teamId));
     }
     return Integer.MIN_VALUE;  // Error return smallest int
   }
@@ -175,6 +755,26 @@ public abstract class SportsGame {
     return sportName;
   }
 
+  /**
+   * Return the team that's leading (highest total score), if two or more teams share the
+   * highest score then we return 0.  This uses the cached leader so it doesn't look at
+   * the interval scores.
+   *
+   * @return int teamId of the leader (1->numberOfTeams) or 0 if there's a tie
+   */
+  public int getLeader() {
+    if (scoringLock != null) {
+      // Don't touch the cache from a reader thread, work it out from the current totals
+      int[] totals = new int[numberOfTeams];
+      for (int i = 0; i < numberOfTeams; i++) {
+        totals[i] = runTotal(i);
+      }
+      return leaderOf(totals);
+    }
+    if (leaderStale) refreshLeader();
+    return leaderTeamId;
+  }
+
   /**
    * Return flag to indicate if a tie; basically where the highest scores
    * are the same (we use another method to determine it for unique sports
@@ -183,29 +783,45 @@ public abstract class SportsGame {
    * @return boolean Indicating
    */
   private boolean inATie() {
-    Iterator it = intervalScores.iterator();
+    if (leaderStale) refreshLeader();
+    return (leaderTeamId == 0);
+  }
+
+  /**
+   * Recalculate the leader from the team totals; only called when a score has changed
+   * since the last time we looked so repeated queries are free.  With concurrent scoring
+   * this is only called while holding the write lock (from checkGameOver).
+   */
+  private void refreshLeader() {
+    leaderTeamId = leaderOf(teamTotals);
+    leaderStale = false;
+  }
+
+  /**
+   * Return the team with the highest total in the array passed in, or 0 if the highest
+   * total is shared (a tie)
+   *
+   * @param _totals team totals (0 offset)
+   * @return int teamId of the leader or 0 for a tie
+   */
+  private int leaderOf(int[] _totals) {
     int maxScore = Integer.MIN_VALUE;
     boolean rtnFlag = false;
-    int[] sumOfScores = new int[numberOfTeams];
-    while (it.hasNext()) {
-      Integer[] intervalScores = (Integer[]) it.next();
-      for (int i = 0; i < intervalScores.length; i++) {
-        sumOfScores[i] += intervalScores[i];
-      }
-    }
+    int leader = 0;
 
-    // Now iterate over team scores to see if have tie or not
+    // Iterate over team scores to see if have tie or not
     for (int i = 0; i < numberOfTeams; i++) {
-      if (teamTie(maxScore, sumOfScores[i])) {
+      if (teamTie(maxScore, _totals[i])) {
         rtnFlag = true;
       } else {
-        if (sumOfScores[i] > maxScore) {
-          maxScore = sumOfScores[i];
+        if (_totals[i] > maxScore) {
+          maxScore = _totals[i];
+          leader = i + 1;
           rtnFlag = false;
         }
       }
     }
-    return rtnFlag;
+    return (rtnFlag ? 0 : leader);
   }
 
   /**
@@ -242,10 +858,19 @@ public abstract class SportsGame {
     intervalName = _intervalName;
     overtimeAllowed = _overtimeAllowed;
     quitGame = false;
+    intervalLabels = new String[_numberOfIntervals + 2];
+    scoreboardHeader = null;
 
     currentInterval = 0;
     if ((numberOfTeams > 0) && (numberOfIntervals > 0)) {
-      intervalScores = new ArrayList<Integer[]>();
+      // Allocate room for the regulation intervals up front, we only grow for overtime
+      intervalCapacity = numberOfIntervals;
+      intervalScores = new int[intervalCapacity * numberOfTeams];
+      teamTotals = new int[numberOfTeams];
+      leaderStale = true;
+      completedRows = new int[numberOfIntervals][];
+      completedTotals = new int[numberOfTeams];
+      lastSnapshot = null;
       addInterval();
 
       gameOver = false;
@@ -283,41 +908,273 @@ public abstract class SportsGame {
    * down vertically.
    */
   public void outputGame() {
-    System.out.println("\n\n" + this.getCurrentIntervalText());
-    System.out.format("%n%n");
+    outputGame(System.out);
+  }
 
-    System.out.format("%n%17s", " ");  // Newline and 15 spaces
-    for (int i = 0; i < numberOfTeams; i++) {
-      System.out.format("%1s%6s%3d%1s", " ", (teamSport ? "Team" : "Player") , i + 1, " ");
+  /**
+   * Output the game (see outputGame()) to the stream passed in
+   *
+   * @param _out Stream to write the scoreboard to
+   */
+  public void outputGame(PrintStream _out) {
+    if (GameMetrics.enabled) {
+      long startTime = System.nanoTime();
+      RENDERER.get().render(this, _out);
+      _out.flush();
+      GameMetrics.METRICS.renderLatency.record(System.nanoTime() - startTime);
+    } else {
+      RENDERER.get().render(this, _out);
+      _out.flush();
     }
+  }
 
-    System.out.format("%n%17s", " ");
-    for (int i = 0; i < numberOfTeams; i++) {
-      System.out.format("%1s%9s%1s", " ", "---------", " ");
-    }
+  /**
+   * Lay out the scoreboard for outputGame into the renderer, sports with a different
+   * layout (i.e. tennis) override this.  It works from a snapshot so we don't show a game
+   * that's changing while we output it.
+   *
+   * @param _renderer Renderer to lay the scoreboard out in
+   * @param _snapshot Game to show
+   */
+  protected void renderScoreboard(ScoreboardRenderer _renderer, ScoreboardSnapshot _snapshot) {
+    _renderer.text("\n\n").text(_snapshot.getCurrentIntervalText()).newLine();
+    _renderer.newLine().newLine();
+    _renderer.text(getScoreboardHeader());
 
-    for (int intervalPos = 0; intervalPos < currentInterval; intervalPos++) {
-      System.out.format("%n%-17s", this.getInterval(intervalPos + 1));
+    for (int intervalPos = 0; intervalPos < _snapshot.getCurrentInterval(); intervalPos++) {
+      _renderer.newLine().left(this.getInterval(intervalPos + 1), 17);
 
       for (int teamPos = 0; teamPos < numberOfTeams; teamPos++) {
-        System.out.format("%8d%3s", intervalScores.get(intervalPos)[teamPos], " ");
+        _renderer.right(_snapshot.getScore(teamPos + 1, intervalPos + 1), 8).spaces(3);
       }
     }
 
     // Output the final score
-    System.out.format("%n%-17s", (this.isGameOver() ? "Final" : "Current") + " score:");
+    _renderer.newLine().left(_snapshot.isGameOver() ? "Final score:" : "Current score:", 17);
     for (int teamPos = 0; teamPos < numberOfTeams; teamPos++) {
-      System.out.format("%8d%3s", this.runTotal(teamPos), " ");
+      _renderer.right(_snapshot.runTotal(teamPos), 8).spaces(3);
+    }
+    _renderer.text(" ").newLine();
+  }
+
+  /**
+   * Return the team heading lines of the scoreboard, they only depend on the number of
+   * teams so we build them once
+   *
+   * @return String heading lines
+   */
+  protected String getScoreboardHeader() {
+    String header = scoreboardHeader;
+    if (header == null) {
+      header = buildScoreboardHeader();
+      scoreboardHeader = header;
     }
-    System.out.println(" ");
+    return header;
+  }
+
+  /**
+   * Build the team heading lines (see getScoreboardHeader), override it along with
+   * renderScoreboard if the sport has a different layout
+   *
+   * @return String heading lines
+   */
+  protected String buildScoreboardHeader() {
+    StringBuilder header = new StringBuilder();
+    header.append(String.format("%n%17s", " "));  // Newline and 17 spaces
+    for (int i = 0; i < numberOfTeams; i++) {
+      header.append(String.format("%1s%6s%3d%1s", " ", (teamSport ? "Team" : "Player"), i + 1, " "));
+    }
+
+    header.append(String.format("%n%17s", " "));
+    for (int i = 0; i < numberOfTeams; i++) {
+      header.append(String.format("%1s%9s%1s", " ", "---------", " "));
+    }
+    return header.toString();
   }
 
   /**
    * Quit the game
    */
   public void quitGame() {
-    quitGame = true;
-    gameOver = true;
+    long logged = 0;
+    long stamp = (scoringLock == null ? 0L : scoringLock.writeLock());
+    try {
+      boolean wasOver = gameOver;
+      recordUndo(undoRecord(UNDO_QUIT, 0, 0, (wasOver ? UNDO_WAS_OVER : 0) | (quitGame ? UNDO_WAS_QUIT : 0)));
+      quitGame = true;
+      gameOver = true;
+      if (wasOver == false && hasEventSubscribers()) publishEvent(GameEvent.Type.GAME_OVER, currentInterval, 0, 0);
+      lastSnapshot = null;
+      if (eventLog != null) logged = eventLog.logQuit(eventGameId);
+    } finally {
+      if (scoringLock != null) scoringLock.unlockWrite(stamp);
+      awaitReplication(logged);
+    }
+  }
+
+  /**
+   * Take back the last operation on the game: points added, an interval advance (which
+   * can be into overtime or the end of the game) or quitting.  Calling it again takes back
+   * the one before that and so on, up to the undo depth (see setUndoDepth).  A correction
+   * is an undo and then entering what it should have been.
+   * <p>
+   * Every operation is recorded in a ring of longs as it's done (a couple of shifts and an
+   * array store), and undo applies the inverse of the one on top, so it never rebuilds or
+   * replays the game.  Points are taken off the current interval (anything entered after
+   * an advance was undone before we get to the advance), and undoing an advance drops the
+   * interval and puts the game back the way it was.  Undo is logged to the event log and
+   * subscribers see it as points taken off or a CORRECTED event.
+   *
+   * @return boolean true if something was undone, false if there's nothing left to undo
+   */
+  public boolean undo() {
+    long logged = 0;
+    long stamp = (scoringLock == null ? 0L : scoringLock.writeLock());
+    try {
+      long top = undoTop.get();
+      // Anything more than a ring behind the highest top we've had has been overwritten
+      undoFloor = Math.max(undoFloor, top - undoRing.length);
+      if (top <= undoFloor) return false;
+      undoTop.set(top - 1);
+      long record = undoRing[(int) ((top - 1) & (undoRing.length - 1))];
+      int kind = (int) (record >>> 60);
+      int flags = (int) (record >>> 56) & 0xF;
+      if (kind == UNDO_SCORE) {
+        changeScore((int) (record >>> 32) & 0xFFFFFF, currentInterval, -(int) record);
+      } else if (kind == UNDO_LATE_SCORE) {
+        changeScore((int) (record >>> 20) & 0xFFFFFF, (int) (record >>> 44) & 0xFFFF, -(((int) record << 12) >> 12));
+      } else {
+        if ((flags & UNDO_ADDED_INTERVAL) != 0) removeInterval();
+        gameOver = ((flags & UNDO_WAS_OVER) != 0);
+        quitGame = ((flags & UNDO_WAS_QUIT) != 0);
+        lastSnapshot = null;
+        if (hasEventSubscribers()) publishEvent(GameEvent.Type.CORRECTED, currentInterval, 0, 0);
+      }
+      if (eventLog != null) logged = eventLog.logUndo(eventGameId);
+      return true;
+    } finally {
+      if (scoringLock != null) scoringLock.unlockWrite(stamp);
+      awaitReplication(logged);
+    }
+  }
+
+  /**
+   * Return indicator if there's anything to undo
+   */
+  public boolean canUndo() {
+    long stamp = (scoringLock == null ? 0L : scoringLock.readLock());
+    try {
+      long top = undoTop.get();
+      return (top > Math.max(undoFloor, top - undoRing.length));
+    } finally {
+      if (scoringLock != null) scoringLock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Set how many operations can be undone (rounded up to a power of 2, the default is
+   * 128), what could be undone before this is forgotten.  It's logged to the event log
+   * since replaying later undos depends on it.
+   *
+   * @param _depth Number of operations to keep
+   */
+  public void setUndoDepth(int _depth) {
+    long logged = 0;
+    long stamp = (scoringLock == null ? 0L : scoringLock.writeLock());
+    try {
+      undoRing = new long[Integer.highestOneBit(Math.max(_depth, 1) * 2 - 1)];
+      undoFloor = undoTop.get();
+      if (eventLog != null) logged = eventLog.logUndoDepth(eventGameId, _depth);
+    } finally {
+      if (scoringLock != null) scoringLock.unlockWrite(stamp);
+      awaitReplication(logged);
+    }
+  }
+
+  /**
+   * Pack an operation for the undo ring: kind in bits 60-62, flags in 56-59, team in 32-55
+   * and points (or the interval) in 0-31
+   */
+  private static long undoRecord(int _kind, int _teamId, int _points, int _flags) {
+    return ((long) _kind << 60) | ((long) _flags << 56) | ((long) (_teamId & 0xFFFFFF) << 32) | (_points & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Pack a late score for the undo ring (see setIntervalScore): kind in bits 60-62,
+   * interval in 44-59, team in 20-43 and the points in 0-19
+   */
+  private static long lateScoreRecord(int _teamId, int _interval, int _points) {
+    return ((long) UNDO_LATE_SCORE << 60) | ((long) _interval << 44) | ((long) (_teamId & 0xFFFFFF) << 20) | (_points & 0xFFFFFL);
+  }
+
+  /**
+   * Put an operation on the undo ring; with concurrent scoring scorers do this at the same
+   * time (under the shared lock) so the slot is claimed atomically, undo holds the write
+   * lock so it never runs while they do.
+   */
+  private void recordUndo(long _record) {
+    long[] ring = undoRing;
+    ring[(int) (undoTop.getAndIncrement() & (ring.length - 1))] = _record;
+  }
+
+  /**
+   * Drop the current interval (undoing the advance that added it); the row published for
+   * the interval before it stays in completedRows since a snapshot can still be looking
+   * at it, completeInterval copies the array rather than overwrite it.
+   */
+  private void removeInterval() {
+    int interval = currentInterval;
+    for (int teamId = 1; teamId <= numberOfTeams; teamId++) {
+      // Everything scored in the interval was undone first so this is normally 0 already
+      int cell = intervalScores[scorePos(interval, teamId)];
+      intervalScores[scorePos(interval, teamId)] = 0;
+      teamTotals[teamId - 1] -= cell;
+    }
+    int[] row = completedRows[interval - 2];
+    int[] newTotals = new int[numberOfTeams];
+    for (int i = 0; i < numberOfTeams; i++) {
+      newTotals[i] = completedTotals[i] - row[i];
+    }
+    completedTotals = newTotals;
+    currentInterval = interval - 1;
+    leaderStale = true;
+    if (stats != null) stats.intervalUndone(currentInterval, row);
+  }
+
+  /**
+   * Return indicator if the game was ended by quitting it (rather than being played out)
+   */
+  boolean isQuitGame() {
+    return quitGame;
+  }
+
+  /**
+   * Put a game that was just created back into a state that was saved (see GameCodec).
+   * The scores go through the normal scoring path, one interval at a time, so everything
+   * worked out from them (totals, leader, tennis wins, snapshots) is rebuilt the same way
+   * as when the game was played.  Call it before the game has an event log or concurrent
+   * scoring, otherwise the restore would be logged as new points.
+   *
+   * @param _currentInterval Interval the game was on
+   * @param _scores Score for every interval/team, interval-major (same layout as intervalScores)
+   * @param _gameOver Was the game over
+   * @param _quitGame Was the game quit
+   */
+  void restoreState(int _currentInterval, int[] _scores, boolean _gameOver, boolean _quitGame) {
+    if (currentInterval != 1 || eventLog != null || scoringLock != null) {
+      throw new IllegalStateException("Only a new game can be restored");
+    }
+    for (int interval = 1; interval <= _currentInterval; interval++) {
+      if (interval > 1) addInterval();
+      for (int teamId = 1; teamId <= numberOfTeams; teamId++) {
+        int score = _scores[scorePos(interval, teamId)];
+        if (score != 0) applyScore(teamId, score);
+      }
+    }
+    quitGame = _quitGame;
+    gameOver = _gameOver;
+    lastSnapshot = null;
+    undoFloor = undoTop.get();   // The restore itself can't be undone
   }
 
   /**
@@ -327,12 +1184,72 @@ public abstract class SportsGame {
    * @return totalScore for that team
    */
   public int runTotal(int _teamPosMinusOne) {
-    int totalScore = 0;
-    for (int i = 0; i < currentInterval; i++) {
-      totalScore += intervalScores.get(i)[_teamPosMinusOne];
+    if (scoringLock == null) {
+      return teamTotals[_teamPosMinusOne];
     }
+    return (int) SCORE_CELL.getVolatile(teamTotals, _teamPosMinusOne);
+  }
 
-    return totalScore;
+  /**
+   * Return a read only snapshot of the scoreboard, it's safe to hand to other threads and
+   * to render while the game carries on.  Intervals that are over are shared between
+   * snapshots, so this only copies the current interval's scores.  When concurrent
+   * scoring is on the snapshot is consistent (it can't mix two intervals) and scorers
+   * aren't blocked while we take it.
+   *
+   * @return ScoreboardSnapshot of the game right now
+   */
+  public ScoreboardSnapshot snapshot() {
+    if (scoringLock == null) {
+      // Nothing has changed since we last built one, hand out the same one
+      if (lastSnapshot == null) lastSnapshot = buildSnapshot();
+      return lastSnapshot;
+    }
+    long stamp = scoringLock.tryOptimisticRead();
+    ScoreboardSnapshot snapshot = buildSnapshot();
+    if (scoringLock.validate(stamp) == false) {
+      // An interval changed while we were reading, take it again while they're held off
+      stamp = scoringLock.readLock();
+      try {
+        snapshot = buildSnapshot();
+      } finally {
+        scoringLock.unlockRead(stamp);
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Build the snapshot, the totals are worked out from the rows we put in the snapshot
+   * so they always agree with its scores.
+   */
+  private ScoreboardSnapshot buildSnapshot() {
+    int interval = currentInterval;   // Read first, see getScore
+    boolean over = gameOver;
+    int[][] rows = completedRows;
+    int[] rowTotals = completedTotals;
+    int[] currentRow = new int[numberOfTeams];
+    int[] totals = new int[numberOfTeams];
+    for (int i = 0; i < numberOfTeams; i++) {
+      currentRow[i] = getScore(i + 1, interval);
+      totals[i] = rowTotals[i] + currentRow[i];
+    }
+    String intervalText = (over ? "Game over" : getInterval(interval));
+    return new ScoreboardSnapshot(sportName, teamSport, numberOfTeams, interval, intervalText, over,
+                                  rows, currentRow, totals, countWins(rows, interval - 1, currentRow));
+  }
+
+  /**
+   * Return the number of intervals each team has won for the rows passed in, sports that
+   * count wins (i.e. tennis) override this; the default is null meaning we don't count them.
+   *
+   * @param _completedRows Scores for the intervals that are over
+   * @param _completedCount Number of rows in _completedRows to look at
+   * @param _currentRow Scores for the current interval
+   * @return int[] wins per team (0 offset) or null
+   */
+  protected int[] countWins(int[][] _completedRows, int _completedCount, int[] _currentRow) {
+    return null;
   }
 
   /**
@@ -11,10 +11,97 @@ package com.corti;
  * outputGame (cause of weird scoring) and created some enums to help with calculating the score.
  */
 public class Tennis extends SportsGame {
+  private final int numberOfPairs;     // Number of games going on at once (players / 2)
+  private byte[] gameWinner;           // Per interval and pair: 0 game not over, 1 first player won, 2 second
+  private int[] pairsDone;             // Per interval: number of pairs whose game is over
+  private final int[] gamesWon;        // Games won per player (0 offset)
+  private volatile CompletedWins completedWins;  // Wins for finished intervals, used by snapshots
 
   // Constructor (we're assume a team not individual sport)
   public Tennis(int _numberOfPlayers) {
     initGame("Tennis", true, _numberOfPlayers, 6, "Game", true);
+    numberOfPairs = _numberOfPlayers / 2;
+    gameWinner = new byte[8 * Math.max(numberOfPairs, 1)];
+    pairsDone = new int[8];
+    gamesWon = new int[Math.max(_numberOfPlayers, 0)];
+  }
+
+  /**
+   * Keep track of the games as points are scored; we work out if the game the player is
+   * in has been won (or un-won, if points were taken back) and when every game in the
+   * interval is over the winners are credited, that way isIntervalOver and totalWins
+   * don't have to look at the scores.
+   */
+  protected void scoreChanged(int _teamId, int _interval) {
+    int pair = (_teamId - 1) / 2;
+    if (pair >= numberOfPairs) return;  // Odd player out isn't in a game
+    synchronized (gamesWon) {
+      if (_interval > pairsDone.length) growGames(_interval);
+      int team1Score = getScore(pair * 2 + 1, _interval);
+      int team2Score = getScore(pair * 2 + 2, _interval);
+      if (hasEventSubscribers()) publishCall(pair * 2 + 1, pair * 2 + 2, _interval, team1Score, team2Score);
+      byte winner = 0;
+      if (gameWon(team1Score, team2Score)) {
+        winner = (byte) (team1Score > team2Score ? 1 : 2);
+      }
+      int pos = (_interval - 1) * numberOfPairs + pair;
+      byte oldWinner = gameWinner[pos];
+      if (winner == oldWinner) return;
+
+      // Take off the wins for the interval if they were counted, change the game and
+      // then put them back if the interval is (still) over
+      if (GameMetrics.enabled && oldWinner == 0) GameMetrics.METRICS.tennisGamesWon.increment();
+      if (pairsDone[_interval - 1] == numberOfPairs) creditWins(_interval, -1);
+      if (oldWinner != 0) pairsDone[_interval - 1]--;
+      if (winner != 0) pairsDone[_interval - 1]++;
+      gameWinner[pos] = winner;
+      if (pairsDone[_interval - 1] == numberOfPairs) creditWins(_interval, 1);
+    }
+  }
+
+  /**
+   * Each pair is its own match for runs, and we count deuces and break points
+   */
+  protected GameStats createStats() {
+    return new GameStats(getNumberOfTeams(), getNumberOfIntervals(), true);
+  }
+
+  /**
+   * Tell subscribers when a game goes to deuce or someone has the advantage
+   */
+  private void publishCall(int _team1Id, int _team2Id, int _interval, int _team1Score, int _team2Score) {
+    TennisGameScore call = TennisGameScore.getScore(_team1Score, _team2Score);
+    if (call == TennisGameScore.Deuce) {
+      publishEvent(GameEvent.Type.DEUCE, _interval, _team1Id, _team2Id);
+    } else if (call == TennisGameScore.Advantage) {
+      publishEvent(GameEvent.Type.ADVANTAGE, _interval, _team1Id, _team2Id);
+    } else if (TennisGameScore.getScore(_team2Score, _team1Score) == TennisGameScore.Advantage) {
+      publishEvent(GameEvent.Type.ADVANTAGE, _interval, _team2Id, _team1Id);
+    }
+  }
+
+  /**
+   * Add (or subtract) a win for the winner of every game in the interval
+   */
+  private void creditWins(int _interval, int _amount) {
+    int pos = (_interval - 1) * numberOfPairs;
+    for (int pair = 0; pair < numberOfPairs; pair++) {
+      gamesWon[pair * 2 + gameWinner[pos + pair] - 1] += _amount;
+    }
+  }
+
+  /**
+   * Make room for games up to the interval passed in (doubles so overtime doesn't copy
+   * on every game)
+   */
+  private void growGames(int _interval) {
+    int newIntervals = Math.max(pairsDone.length * 2, _interval);
+    byte[] newWinners = new byte[newIntervals * numberOfPairs];
+    System.arraycopy(gameWinner, 0, newWinners, 0, pairsDone.length * numberOfPairs);
+    int[] newDone = new int[newIntervals];
+    System.arraycopy(pairsDone, 0, newDone, 0, pairsDone.length);
+    gameWinner = newWinners;
+    pairsDone = newDone;
   }
 
   /**
@@ -25,6 +112,11 @@ public class Tennis extends SportsGame {
    * @return boolean indicating if interval is over, defaults to false
    */
   public boolean isIntervalOver(int _interval) {
+    if (numberOfPairs > 0 && _interval > 0 && _interval <= getCurrentInterval()) {
+      synchronized (gamesWon) {
+        return (_interval <= pairsDone.length && pairsDone[_interval - 1] == numberOfPairs);
+      }
+    }
     boolean allDone = true;
     int numTeams = getNumberOfTeams();
     int team1Id, team2Id, team1Score, team2Score;
@@ -33,7 +125,7 @@ public class Tennis extends SportsGame {
       team2Id = i * 2 + 2;
       team1Score = getScore(team1Id, _interval);
       team2Score = getScore(team2Id, _interval);
-      if ( !( (Math.abs(team1Score-team2Score) > 1) && (team1Score > 3 || team2Score > 3) ) ) {
+      if (gameWon(team1Score, team2Score) == false) {
         allDone = false;
       }
     }
@@ -41,76 +133,140 @@ public class Tennis extends SportsGame {
   }
 
   /**
-   * Calculate the total wins for the team passed in
+   * Return boolean to identify if a game between two players is over; that's when one
+   * of them has more than 3 points and they're more than one point apart.
+   *
+   * @param _team1Score Points for one player
+   * @param _team2Score Points for the other player
+   * @return boolean true if the game has been won
+   */
+  private static boolean gameWon(int _team1Score, int _team2Score) {
+    return (Math.abs(_team1Score - _team2Score) > 1) && (_team1Score > 3 || _team2Score > 3);
+  }
+
+  /**
+   * Count the games won by each player for the snapshot rows passed in (see SportsGame.snapshot),
+   * rows for finished intervals never change so we keep the wins counted for them and
+   * only count rows we haven't seen yet (and the current row).  When an advance is undone
+   * and the interval played again its row is a new array, so the cache is only used while
+   * the last row it counted is still the one in its place.
+   */
+  protected int[] countWins(int[][] _completedRows, int _completedCount, int[] _currentRow) {
+    CompletedWins counted = completedWins;
+    int[] wins;
+    if (counted != null && counted.count <= _completedCount
+        && (counted.count == 0 || _completedRows[counted.count - 1] == counted.lastRow)) {
+      wins = counted.wins.clone();
+    } else {
+      counted = null;
+      wins = new int[_currentRow.length];
+    }
+    for (int i = (counted == null ? 0 : counted.count); i < _completedCount; i++) {
+      countRowWins(_completedRows[i], wins);
+    }
+    if (counted == null || counted.count < _completedCount) {
+      completedWins = new CompletedWins(_completedCount, (_completedCount == 0 ? null : _completedRows[_completedCount - 1]), wins.clone());
+    }
+    countRowWins(_currentRow, wins);
+    return wins;
+  }
+
+  // Wins counted for the first 'count' finished intervals (never changed once created)
+  private static final class CompletedWins {
+    final int count;
+    final int[] lastRow;               // Row for interval 'count' when the wins were counted
+    final int[] wins;
+
+    CompletedWins(int _count, int[] _lastRow, int[] _wins) {
+      count = _count;
+      lastRow = _lastRow;
+      wins = _wins;
+    }
+  }
+
+  /**
+   * Add the games won in one interval (row of scores) to the wins passed in, like
+   * totalWins we only count an interval once every game in it is over
+   */
+  private static void countRowWins(int[] _row, int[] _wins) {
+    for (int i = 0; i + 1 < _row.length; i += 2) {
+      if (gameWon(_row[i], _row[i + 1]) == false) return;
+    }
+    for (int i = 0; i + 1 < _row.length; i += 2) {
+      _wins[(_row[i] > _row[i + 1] ? i : i + 1)]++;
+    }
+  }
+
+  /**
+   * Return the total wins for the team passed in, the wins are kept up to date as points
+   * are scored (see scoreChanged) so this doesn't look at the games.
    *
    * @param _teamId team id you want to get wins for
    * @return total number of wins
    */
   public int totalWins(int _teamId) {
-    int totalWins = 0;
     int otherTeam = 0;
-    int score1, score2;
     if ((_teamId % 2) == 0) // 2 plays 1, 4 plays 3
       otherTeam = _teamId - 1;
     else
       otherTeam = _teamId + 1; // plays higher number
-    if (otherTeam <= getNumberOfTeams()) {
-      for (int interval = 1; interval <= getCurrentInterval(); interval++) {
-        if (isIntervalOver(interval)) {
-          // Make sure valid
-          score1 = getScore(_teamId, interval);
-          score2 = getScore(otherTeam, interval);
-          if (score1 > score2) totalWins++;
-        }
+    if (_teamId > 0 && otherTeam <= getNumberOfTeams()) {
+      synchronized (gamesWon) {
+        return gamesWon[_teamId - 1];
       }
     }
-    return totalWins;
+    return 0;
   }
 
   /**
    * Overrides the standard game output, tennis is a little different
    */
-  public void outputGame() {
-    int numTeams = getNumberOfTeams();
-    int currInterval = getCurrentInterval();
-
-    System.out.println("\n\n" + this.getCurrentIntervalText());
-    System.out.format("%n%n");
-    System.out.format("%n%15s", " ");  // Newline and 15 spaces
-    for (int i = 0; i < numTeams; i++) {
-      System.out.format("%1s%7s%5d%1s", " ", (isATeamSport() ? "Team" : "Person"), i + 1, " ");
-    }
+  protected void renderScoreboard(ScoreboardRenderer _renderer, ScoreboardSnapshot _snapshot) {
+    int numTeams = _snapshot.getNumberOfTeams();
+    int currInterval = _snapshot.getCurrentInterval();
 
-    System.out.format("%n%15s", " ");
-    for (int i = 0; i < numTeams; i++) {
-      System.out.format("%1s%12s%1s"," ","------------"," ");
-    }
+    _renderer.text("\n\n").text(_snapshot.getCurrentIntervalText()).newLine();
+    _renderer.newLine().newLine();
+    _renderer.text(getScoreboardHeader());
 
     for (int intervalPos = 0; intervalPos < currInterval; intervalPos++) {
-      System.out.format("%n%-15s", this.getInterval(intervalPos + 1));
+      _renderer.newLine().left(this.getInterval(intervalPos + 1), 15);
 
       // Assumed that team1 plays team2 (really teams are people our a double)
 
       for (int i = 0; i < (numTeams/2); i++) {
         int team1Id = i * 2 + 1; // Not zero offset for call getting score
         int team2Id = i * 2 + 2;
-        int team1Score = getScore(team1Id, intervalPos+1);
-        int team2Score = getScore(team2Id, intervalPos+1);
-        System.out.format("%1s%12s%1s"," ",TennisGameScore.getScore(team1Score, team2Score).name()," ");
-        System.out.format("%1s%12s%1s"," ",TennisGameScore.getScore(team2Score, team1Score).name()," ");
-      }
-
-      for (int teamPos = 0; teamPos < numTeams; teamPos++) {
-        //System.out.format("%8d%3s", intervalScores.get(intervalPos)[teamPos], " ");
+        int team1Score = _snapshot.getScore(team1Id, intervalPos+1);
+        int team2Score = _snapshot.getScore(team2Id, intervalPos+1);
+        _renderer.spaces(1).right(TennisGameScore.getScore(team1Score, team2Score).name(), 12).spaces(1);
+        _renderer.spaces(1).right(TennisGameScore.getScore(team2Score, team1Score).name(), 12).spaces(1);
       }
     }
 
     // Output the final score
-    System.out.format("%n%-15s", (this.isGameOver() ? "Final" : "Current") + " score:");
+    _renderer.newLine().left(_snapshot.isGameOver() ? "Final score:" : "Current score:", 15);
     for (int teamPos = 0; teamPos < numTeams; teamPos++) {
-      System.out.format("%8d%3s", this.totalWins(teamPos+1), " ");
+      _renderer.right(_snapshot.getWins(teamPos+1), 8).spaces(3);
     }
-    System.out.println(" ");
+    _renderer.text(" ").newLine();
+  }
+
+  /**
+   * Tennis has wider columns (for Disadvantage etc..) so the heading is different
+   */
+  protected String buildScoreboardHeader() {
+    StringBuilder header = new StringBuilder();
+    header.append(String.format("%n%15s", " "));  // Newline and 15 spaces
+    for (int i = 0; i < getNumberOfTeams(); i++) {
+      header.append(String.format("%1s%7s%5d%1s", " ", (isATeamSport() ? "Team" : "Person"), i + 1, " "));
+    }
+
+    header.append(String.format("%n%15s", " "));
+    for (int i = 0; i < getNumberOfTeams(); i++) {
+      header.append(String.format("%1s%12s%1s", " ", "------------", " "));
+    }
+    return header.toString();
   }
 
   // Enum for 'happy path' tennis scores
@@ -118,9 +274,12 @@ public class Tennis extends SportsGame {
 
   // Enum for possible game scores, this enum calculates the value
   // for team1 based on the current score with team2
-  private enum TennisGameScore {
+  enum TennisGameScore {
     Love, Fifteen, Thirty, Forty, Game, Deuce, Disadvantage, Advantage;
 
+    // values() hands back a new array each call, keep one copy
+    private static final TennisGameScore[] VALUES = values();
+
     // Return Status of team1 in relation to team2, typically call this with team1, team2 to get team1's status
     // then call it reversing the parms so that you get team2's status in relation to team1 :)
     public static TennisGameScore getScore(int _team1, int _team2) {
@@ -130,7 +289,7 @@ public class Tennis extends SportsGame {
       TennisGameScore rtnValue = TennisGameScore.Love;
       if (_team1 <= TennisScore.Game.ordinal()) {
         // First 5 ordinal values are same between TennisScore and TennisGameScore
-        rtnValue = TennisGameScore.values()[_team1];
+        rtnValue = VALUES[_team1];
       }
 
       if ((_team1 - _team2) > 1)  {
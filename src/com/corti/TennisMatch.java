@@ -0,0 +1,215 @@
+package com.corti;
+
+import java.io.PrintStream;
+
+/**
+ * This class scores a full tennis match between two sides: points make up a game, games
+ * make up a set and sets make up the match (best of 3 or 5).  Tennis (the SportsGame) only
+ * scores games so operators had to run several of them to score a match, this keeps track
+ * of the whole thing.
+ * <p>
+ * A game uses the same rules as Tennis (see TennisGameScore; first to 4 points, win by 2
+ * with deuce/advantage).  A set is won by the first side to 6 games with a 2 game lead,
+ * at 6-6 we play a tiebreak (first to 7 points, win by 2) unless it's the final set of an
+ * 'advantage' match where the set just carries on until someone is 2 games up.
+ * <p>
+ * All the state is in a handful of primitives (plus the games of each set) so a point is
+ * O(1) and a whole match is well under a few hundred bytes.
+ */
+public class TennisMatch {
+  private static final int GAMES_PER_SET = 6;
+  private static final int TIEBREAK_POINTS = 7;
+
+  private final int setsToWin;            // 2 for best of 3, 3 for best of 5
+  private final boolean advantageFinalSet;// No tiebreak in the final set
+  private final byte[] setGames;          // Games won in each set, [set * 2 + side]
+
+  private int points1, points2;           // Points in the current game (or tiebreak)
+  private int currentSet;                 // 0 offset
+  private int sets1, sets2;               // Sets won
+  private int server;                     // Side serving the current point (1 or 2)
+  private int tiebreakPointsPlayed;       // Points played in the tiebreak (for the serve)
+  private int firstTiebreakServer;        // Side that served first in the tiebreak
+  private boolean inTiebreak;
+  private int winner;                     // 0 until the match is over
+
+  /**
+   * Constructor
+   *
+   * @param _bestOf Number of sets in the match (3 or 5)
+   * @param _advantageFinalSet true if the final set has no tiebreak (played out to 2 games)
+   */
+  public TennisMatch(int _bestOf, boolean _advantageFinalSet) {
+    setsToWin = (_bestOf / 2) + 1;
+    advantageFinalSet = _advantageFinalSet;
+    setGames = new byte[(setsToWin * 2 - 1) * 2];
+    server = 1;
+  }
+
+  /**
+   * Record a point won by the side passed in, this rolls the point up into the game,
+   * set and match as needed.
+   *
+   * @param _side Side that won the point (1 or 2)
+   * @return boolean false if the point wasn't valid (bad side or the match is over)
+   */
+  public boolean pointWon(int _side) {
+    if (winner != 0 || (_side != 1 && _side != 2)) return false;
+    if (_side == 1) points1++;
+    else points2++;
+
+    if (inTiebreak) {
+      tiebreakPointsPlayed++;
+      // The first point is served by one side and then it changes every 2 points
+      if (tiebreakPointsPlayed % 2 == 1) server = 3 - server;
+      if ((points1 >= TIEBREAK_POINTS || points2 >= TIEBREAK_POINTS) && Math.abs(points1 - points2) > 1) {
+        gameWon(points1 > points2 ? 1 : 2);
+      }
+    } else if (Tennis.TennisGameScore.getScore(points1, points2) == Tennis.TennisGameScore.Game) {
+      gameWon(1);
+    } else if (Tennis.TennisGameScore.getScore(points2, points1) == Tennis.TennisGameScore.Game) {
+      gameWon(2);
+    }
+    return true;
+  }
+
+  /**
+   * A side won the game (or tiebreak), credit it to the set and see if the set is over
+   */
+  private void gameWon(int _side) {
+    boolean wasTiebreak = inTiebreak;
+    points1 = 0;
+    points2 = 0;
+    inTiebreak = false;
+    int pos = currentSet * 2;
+    setGames[pos + _side - 1]++;
+    int games1 = setGames[pos];
+    int games2 = setGames[pos + 1];
+
+    if (wasTiebreak || (Math.max(games1, games2) >= GAMES_PER_SET && Math.abs(games1 - games2) > 1)) {
+      setWon(_side);
+    } else if (games1 == GAMES_PER_SET && games2 == GAMES_PER_SET && !(advantageFinalSet && isFinalSet())) {
+      inTiebreak = true;
+      tiebreakPointsPlayed = 0;
+    }
+
+    // The side that received in the last game serves the next one (after a tiebreak that's
+    // the side that didn't serve first in it)
+    if (wasTiebreak) {
+      server = 3 - firstTiebreakServer;
+    } else {
+      server = 3 - server;
+    }
+    if (inTiebreak) firstTiebreakServer = server;
+  }
+
+  /**
+   * A side won the set, see if that wins the match
+   */
+  private void setWon(int _side) {
+    if (_side == 1) sets1++;
+    else sets2++;
+    if (sets1 == setsToWin || sets2 == setsToWin) {
+      winner = _side;
+    } else {
+      currentSet++;
+    }
+  }
+
+  /**
+   * Return flag to identify if we're in the deciding set
+   */
+  private boolean isFinalSet() {
+    return (sets1 == setsToWin - 1 && sets2 == setsToWin - 1);
+  }
+
+  /**
+   * Return the game score for the side as it's called (Love, Fifteen, Deuce, Advantage
+   * etc..), in a tiebreak it's the number of points.
+   *
+   * @param _side Side (1 or 2)
+   * @return String score
+   */
+  public String getGameScore(int _side) {
+    int mine = (_side == 1 ? points1 : points2);
+    int theirs = (_side == 1 ? points2 : points1);
+    if (inTiebreak) return Integer.toString(mine);
+    return Tennis.TennisGameScore.getScore(mine, theirs).name();
+  }
+
+  /**
+   * Return the points for the side in the current game (or tiebreak)
+   */
+  public int getPoints(int _side) {
+    return (_side == 1 ? points1 : points2);
+  }
+
+  /**
+   * Return the games won by the side in the set passed in
+   *
+   * @param _set Set (1 offset)
+   * @param _side Side (1 or 2)
+   * @return int games, 0 if the set hasn't been played
+   */
+  public int getGames(int _set, int _side) {
+    if (_set < 1 || _set > currentSet + 1 || _side < 1 || _side > 2) return 0;
+    return setGames[(_set - 1) * 2 + _side - 1];
+  }
+
+  /**
+   * Return the sets won by the side
+   */
+  public int getSets(int _side) {
+    return (_side == 1 ? sets1 : sets2);
+  }
+
+  /**
+   * Return the set being played (1 offset), once the match is over it's the last set played
+   */
+  public int getCurrentSet() {
+    return currentSet + 1;
+  }
+
+  /**
+   * Return the side serving the next point
+   */
+  public int getServer() {
+    return server;
+  }
+
+  public boolean isInTiebreak() {
+    return inTiebreak;
+  }
+
+  public boolean isMatchOver() {
+    return (winner != 0);
+  }
+
+  /**
+   * Return the side that won the match, 0 if it isn't over
+   */
+  public int getWinner() {
+    return winner;
+  }
+
+  /**
+   * Show the match, one line per side with the games of each set, sets won and the
+   * current game score
+   *
+   * @param _out Where to show it
+   */
+  public void outputMatch(PrintStream _out) {
+    _out.format("%n%-10s", "");
+    for (int set = 1; set <= currentSet + 1; set++) {
+      _out.format("%6s", "Set " + set);
+    }
+    _out.format("%6s%14s%n", "Sets", (isMatchOver() ? "" : (inTiebreak ? "Tiebreak" : "Game")));
+    for (int side = 1; side <= 2; side++) {
+      _out.format("%-10s", "Side " + side + (side == server && !isMatchOver() ? "*" : ""));
+      for (int set = 1; set <= currentSet + 1; set++) {
+        _out.format("%6d", getGames(set, side));
+      }
+      _out.format("%6d%14s%n", getSets(side), (isMatchOver() ? (winner == side ? "Winner" : "") : getGameScore(side)));
+    }
+  }
+}
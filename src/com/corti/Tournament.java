@@ -0,0 +1,352 @@
+package com.corti;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class keeps the standings for a league (or season, or tournament) of one sport.
+ * Finished games are added with recordResult along with who played in them (a game only
+ * knows team 1, team 2 etc..) and the standings are updated right then, so asking for
+ * the table never has to go back over the games.
+ * <p>
+ * What's kept depends on the sport:
+ * <pre>
+ *   Football   wins/losses/ties, points for and against
+ *   Tennis     sets (each Tennis game is a set between a pair of players) and games won/lost
+ *   Golf       strokes and holes played; the lowest score in a round is a win, everyone
+ *              else in the round has a loss
+ * </pre>
+ * The table is a sorted set that a standing is taken out of and put back into when it
+ * changes, so a result is O(log n) and topN is O(N).  Head to head records are kept for
+ * every pair of competitors that have met.  All the methods are synchronized, they're
+ * short so that's cheaper than anything fancier.
+ */
+public class Tournament {
+  private final byte sportCode;
+  private final Map<String, Standing> standings = new HashMap<>();
+  private final TreeSet<Standing> table;
+  private final Map<Long, HeadToHead> meetings = new HashMap<>();
+  private int gamesRecorded;
+
+  /**
+   * Constructor
+   *
+   * @param _sport Sport the tournament is for (football, tennis or golf)
+   */
+  public Tournament(String _sport) {
+    Comparator<Standing> order;
+    switch (_sport.toLowerCase()) {
+      case "football":
+        sportCode = GameEventLog.SPORT_FOOTBALL;
+        order = Comparator.comparingInt((Standing s) -> -s.wins).thenComparingInt(s -> -s.ties)
+                          .thenComparingInt(s -> -(s.pointsFor - s.pointsAgainst)).thenComparingInt(s -> -s.pointsFor);
+        break;
+      case "tennis":
+        sportCode = GameEventLog.SPORT_TENNIS;
+        order = Comparator.comparingInt((Standing s) -> -s.wins)
+                          .thenComparingInt(s -> -(s.gamesWon - s.gamesLost)).thenComparingInt(s -> -s.gamesWon);
+        break;
+      case "golf":
+        sportCode = GameEventLog.SPORT_GOLF;
+        order = Comparator.comparingInt((Standing s) -> -s.wins).thenComparing(Tournament::compareStrokeAverage);
+        break;
+      default:
+        throw new IllegalArgumentException("Can't keep standings for " + _sport);
+    }
+    table = new TreeSet<>(order.thenComparingInt(s -> s.id));   // id last so no two standings are equal
+  }
+
+  /**
+   * Lower strokes per hole ranks higher (cross multiplied so we don't need doubles),
+   * anyone that hasn't played a hole goes after everyone that has
+   */
+  private static int compareStrokeAverage(Standing _a, Standing _b) {
+    if (_a.holesPlayed == 0 || _b.holesPlayed == 0) return Integer.compare(_b.holesPlayed, _a.holesPlayed);
+    return Long.compare((long) _a.strokes * _b.holesPlayed, (long) _b.strokes * _a.holesPlayed);
+  }
+
+  /**
+   * Add a finished game to the standings
+   *
+   * @param _theGame The game, it has to be over and be the tournament's sport
+   * @param _competitors Who was team 1, team 2 etc.. (one name per team)
+   * @throws IllegalArgumentException if the game can't be counted
+   */
+  public synchronized void recordResult(SportsGame _theGame, String... _competitors) {
+    if (GameEventLog.sportCode(_theGame) != sportCode) {
+      throw new IllegalArgumentException(_theGame.getSportName() + " game isn't part of this tournament");
+    }
+    ScoreboardSnapshot snapshot = _theGame.snapshot();
+    if (snapshot.isGameOver() == false) {
+      throw new IllegalArgumentException("Game isn't over");
+    }
+    int teams = snapshot.getNumberOfTeams();
+    if (_competitors.length != teams) {
+      throw new IllegalArgumentException("Game has " + teams + " teams but " + _competitors.length + " competitors were given");
+    }
+    for (int i = 0; i < teams; i++) {
+      for (int j = i + 1; j < teams; j++) {
+        if (_competitors[i].equals(_competitors[j])) throw new IllegalArgumentException(_competitors[i] + " is in the game twice");
+      }
+    }
+
+    switch (sportCode) {
+      case GameEventLog.SPORT_TENNIS:
+        // Players 1 and 2 play each other, 3 and 4 etc..
+        for (int team = 1; team + 1 <= teams; team += 2) {
+          recordMeeting(_competitors[team - 1], _competitors[team],
+                        snapshot.getWins(team), snapshot.getWins(team + 1), false);
+        }
+        break;
+      case GameEventLog.SPORT_GOLF:
+        recordRound(snapshot, _competitors);
+        break;
+      default:
+        recordMeeting(_competitors[0], _competitors[1], snapshot.runTotal(0), snapshot.runTotal(1), false);
+        break;
+    }
+    gamesRecorded++;
+  }
+
+  /**
+   * Record two competitors meeting, _lowWins is true when the lower score wins (golf)
+   */
+  private void recordMeeting(String _nameA, String _nameB, int _scoreA, int _scoreB, boolean _lowWins) {
+    Standing a = standingFor(_nameA);
+    Standing b = standingFor(_nameB);
+    int result = Integer.compare(_scoreA, _scoreB) * (_lowWins ? -1 : 1);   // > 0 when a won
+    if (sportCode != GameEventLog.SPORT_GOLF) {
+      update(a, result, _scoreA, _scoreB);
+      update(b, -result, _scoreB, _scoreA);
+    }
+
+    HeadToHead meeting = meetings.computeIfAbsent(pairKey(a, b), key -> new HeadToHead());
+    boolean aFirst = a.id < b.id;
+    meeting.played++;
+    if (result == 0) {
+      meeting.ties++;
+    } else if ((result > 0) == aFirst) {
+      meeting.firstWins++;
+    } else {
+      meeting.secondWins++;
+    }
+    meeting.firstScore += (aFirst ? _scoreA : _scoreB);
+    meeting.secondScore += (aFirst ? _scoreB : _scoreA);
+  }
+
+  /**
+   * Update a standing after a football game or tennis set, it's taken out of the table
+   * while it changes since its place depends on what's changing
+   */
+  private void update(Standing _standing, int _result, int _for, int _against) {
+    table.remove(_standing);
+    _standing.played++;
+    if (_result > 0) _standing.wins++;
+    else if (_result < 0) _standing.losses++;
+    else _standing.ties++;
+    if (sportCode == GameEventLog.SPORT_TENNIS) {
+      _standing.gamesWon += _for;
+      _standing.gamesLost += _against;
+    } else {
+      _standing.pointsFor += _for;
+      _standing.pointsAgainst += _against;
+    }
+    table.add(_standing);
+  }
+
+  /**
+   * A round of golf, everyone with the lowest score wins (so a shared low score is a win
+   * for each of them) and every pair in the round gets a head to head meeting
+   */
+  private void recordRound(ScoreboardSnapshot _snapshot, String[] _competitors) {
+    int players = _competitors.length;
+    int holes = _snapshot.getCurrentInterval();
+    int lowScore = Integer.MAX_VALUE;
+    for (int i = 0; i < players; i++) lowScore = Math.min(lowScore, _snapshot.runTotal(i));
+    for (int i = 0; i < players; i++) {
+      Standing standing = standingFor(_competitors[i]);
+      table.remove(standing);
+      standing.played++;
+      if (_snapshot.runTotal(i) == lowScore) standing.wins++;
+      else standing.losses++;
+      standing.strokes += _snapshot.runTotal(i);
+      standing.holesPlayed += holes;
+      table.add(standing);
+    }
+    for (int i = 0; i < players; i++) {
+      for (int j = i + 1; j < players; j++) {
+        recordMeeting(_competitors[i], _competitors[j], _snapshot.runTotal(i), _snapshot.runTotal(j), true);
+      }
+    }
+  }
+
+  private Standing standingFor(String _name) {
+    Standing standing = standings.get(_name);
+    if (standing == null) {
+      standing = new Standing(_name, standings.size() + 1);
+      standings.put(_name, standing);
+      table.add(standing);
+    }
+    return standing;
+  }
+
+  private static long pairKey(Standing _a, Standing _b) {
+    return ((long) Math.min(_a.id, _b.id) << 32) | Math.max(_a.id, _b.id);
+  }
+
+  /**
+   * Return the top of the table (copies, they don't change as more results come in)
+   *
+   * @param _count How many you want
+   * @return List of standings, best first
+   */
+  public synchronized List<Standing> topN(int _count) {
+    List<Standing> top = new ArrayList<>(Math.max(Math.min(_count, table.size()), 0));
+    for (Standing standing : table) {
+      if (top.size() >= _count) break;
+      top.add(standing.copy());
+    }
+    return top;
+  }
+
+  /**
+   * Return a competitor's standing (a copy)
+   *
+   * @param _name The competitor
+   * @return Standing or null if they haven't played
+   */
+  public synchronized Standing getStanding(String _name) {
+    Standing standing = standings.get(_name);
+    return (standing == null ? null : standing.copy());
+  }
+
+  /**
+   * Return how two competitors have done against each other, from the first one's
+   * point of view
+   *
+   * @param _name The competitor we want the record for
+   * @param _opponent Who they played
+   * @return HeadToHead record, all 0 if they've never met
+   */
+  public synchronized HeadToHead headToHead(String _name, String _opponent) {
+    Standing a = standings.get(_name);
+    Standing b = standings.get(_opponent);
+    HeadToHead meeting = (a == null || b == null ? null : meetings.get(pairKey(a, b)));
+    if (meeting == null) return new HeadToHead();
+    return (a.id < b.id ? meeting.copy() : meeting.reversed());
+  }
+
+  /**
+   * Return the number of games added with recordResult
+   */
+  public synchronized int getGamesRecorded() {
+    return gamesRecorded;
+  }
+
+  /**
+   * Return the number of competitors in the standings
+   */
+  public synchronized int getCompetitorCount() {
+    return standings.size();
+  }
+
+  /**
+   * One competitor's standing, only the fields for the tournament's sport are used
+   */
+  public static final class Standing {
+    private final String name;
+    private final int id;          // Order the competitor first appeared, breaks ties in the table
+    private int played;            // Games (sets in tennis, rounds in golf)
+    private int wins;
+    private int losses;
+    private int ties;
+    private int pointsFor;         // Football
+    private int pointsAgainst;
+    private int gamesWon;          // Tennis
+    private int gamesLost;
+    private int strokes;           // Golf
+    private int holesPlayed;
+
+    Standing(String _name, int _id) {
+      name = _name;
+      id = _id;
+    }
+
+    Standing copy() {
+      Standing copy = new Standing(name, id);
+      copy.played = played;
+      copy.wins = wins;
+      copy.losses = losses;
+      copy.ties = ties;
+      copy.pointsFor = pointsFor;
+      copy.pointsAgainst = pointsAgainst;
+      copy.gamesWon = gamesWon;
+      copy.gamesLost = gamesLost;
+      copy.strokes = strokes;
+      copy.holesPlayed = holesPlayed;
+      return copy;
+    }
+
+    public String getName() { return name; }
+    public int getPlayed() { return played; }
+    public int getWins() { return wins; }
+    public int getLosses() { return losses; }
+    public int getTies() { return ties; }
+    public int getPointsFor() { return pointsFor; }
+    public int getPointsAgainst() { return pointsAgainst; }
+    public int getPointDifferential() { return pointsFor - pointsAgainst; }
+    public int getGamesWon() { return gamesWon; }
+    public int getGamesLost() { return gamesLost; }
+    public int getSetsWon() { return wins; }
+    public int getStrokes() { return strokes; }
+    public int getHolesPlayed() { return holesPlayed; }
+
+    public String toString() {
+      return String.format("%-20s %4d %4d %4d %4d %6d %6d %6d %6d %6d %4d", name, played, wins, losses, ties,
+                           pointsFor, pointsAgainst, gamesWon, gamesLost, strokes, holesPlayed);
+    }
+  }
+
+  /**
+   * Record of two competitors against each other (first is the one asked about)
+   */
+  public static final class HeadToHead {
+    private int played;
+    private int firstWins;
+    private int secondWins;
+    private int ties;
+    private long firstScore;       // Points (games in tennis, strokes in golf) summed over the meetings
+    private long secondScore;
+
+    HeadToHead copy() {
+      HeadToHead copy = new HeadToHead();
+      copy.played = played;
+      copy.firstWins = firstWins;
+      copy.secondWins = secondWins;
+      copy.ties = ties;
+      copy.firstScore = firstScore;
+      copy.secondScore = secondScore;
+      return copy;
+    }
+
+    HeadToHead reversed() {
+      HeadToHead reversed = copy();
+      reversed.firstWins = secondWins;
+      reversed.secondWins = firstWins;
+      reversed.firstScore = secondScore;
+      reversed.secondScore = firstScore;
+      return reversed;
+    }
+
+    public int getPlayed() { return played; }
+    public int getWins() { return firstWins; }
+    public int getLosses() { return secondWins; }
+    public int getTies() { return ties; }
+    public long getScore() { return firstScore; }
+    public long getOpponentScore() { return secondScore; }
+  }
+}